@@ -2,17 +2,18 @@ package com.google.zxing.activity;
 
 import android.app.ProgressDialog;
 import android.content.Intent;
-import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
+import android.media.AudioAttributes;
 import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnCompletionListener;
+import android.media.SoundPool;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Vibrator;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceHolder.Callback;
 import android.view.SurfaceView;
@@ -22,26 +23,19 @@ import android.widget.ImageButton;
 import android.widget.Toast;
 
 import com.vone.qrcode.R;
-import com.vone.vmq.util.BitmapUtil;
 import com.vone.vmq.util.Constant;
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.ChecksumException;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.FormatException;
-import com.google.zxing.NotFoundException;
 import com.google.zxing.Result;
 import com.google.zxing.camera.CameraManager;
-import com.google.zxing.common.HybridBinarizer;
 import com.google.zxing.decoding.CaptureActivityHandler;
+import com.google.zxing.decoding.GalleryDecoder;
 import com.google.zxing.decoding.InactivityTimer;
-import com.google.zxing.decoding.RGBLuminanceSource;
-import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.decoding.Intents;
+import com.google.zxing.decoding.ScanProfile;
+import com.google.zxing.decoding.ScanTelemetry;
 import com.google.zxing.view.ViewfinderView;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Hashtable;
-import java.util.Vector;
 
 
 /**
@@ -51,7 +45,11 @@ import java.util.Vector;
  */
 public class CaptureActivity extends AppCompatActivity implements Callback {
 
+    private static final String TAG = CaptureActivity.class.getSimpleName();
     private static final int REQUEST_CODE_SCAN_GALLERY = 100;
+    // 每次扫码的统计追加到这个文件，超过大小后从头写
+    private static final String TELEMETRY_FILE = "scan_telemetry.txt";
+    private static final long TELEMETRY_MAX_BYTES = 256 * 1024;
 
     private CaptureActivityHandler handler;
     private ViewfinderView viewfinderView;
@@ -60,16 +58,23 @@ public class CaptureActivity extends AppCompatActivity implements Callback {
     private Button btnAlbum; // 相册
     private boolean isFlashOn = false;
     private boolean hasSurface;
-    private Vector<BarcodeFormat> decodeFormats;
-    private String characterSet;
+    private SurfaceHolder surfaceHolder;
+    // 相机在相机线程上打开，和界面布局、Surface 创建同时进行，两边都好了才开始预览
+    private boolean cameraOpened;
+    private boolean previewStarting;
+    // 每次 onResume/onPause 加一，界面已经暂停后才回来的相机回调直接丢掉
+    private int cameraSession;
+    private ScanProfile scanProfile;
     private InactivityTimer inactivityTimer;
-    private MediaPlayer mediaPlayer;
+    private SoundPool soundPool;
+    private int beepSoundId;
     private boolean playBeep;
     private static final float BEEP_VOLUME = 0.10f;
     private boolean vibrate;
     private ProgressDialog mProgress;
     private String photo_path;
-    private Bitmap scanBitmap;
+    private GalleryDecoder galleryDecoder;
+    private ScanTelemetry telemetry;
     //	private Button cancelScanButton;
     /**
      * Called when the activity is first created.
@@ -98,6 +103,7 @@ public class CaptureActivity extends AppCompatActivity implements Callback {
 //		cancelScanButton = (Button) this.findViewById(R.id.btn_cancel_scan);
         hasSurface = false;
         inactivityTimer = new InactivityTimer(this);
+        galleryDecoder = new GalleryDecoder(this);
 
     }
 
@@ -137,10 +143,10 @@ public class CaptureActivity extends AppCompatActivity implements Callback {
         mProgress.setCancelable(false);
         mProgress.show();
 
-        runOnUiThread(new Runnable() {
+        // 解码大图可能要几百毫秒，放到后台线程，界面关闭时取消
+        galleryDecoder.decode(uri, new GalleryDecoder.Callback() {
             @Override
-            public void run() {
-                Result result = scanningImage(uri);
+            public void onDecoded(Result result) {
                 mProgress.dismiss();
                 if (result != null) {
                     Intent resultIntent = new Intent();
@@ -157,56 +163,48 @@ public class CaptureActivity extends AppCompatActivity implements Callback {
         });
     }
 
-    /**
-     * 扫描二维码图片的方法
-     * @param uri
-     * @return
-     */
-    public Result scanningImage(Uri uri) {
-        if (uri == null) {
-            return null;
-        }
-        Hashtable<DecodeHintType, String> hints = new Hashtable<>();
-        hints.put(DecodeHintType.CHARACTER_SET, "UTF8"); //设置二维码内容的编码
-
-        scanBitmap = BitmapUtil.decodeUri(this, uri, 500, 500);
-        RGBLuminanceSource source = new RGBLuminanceSource(scanBitmap);
-        BinaryBitmap bitmap1 = new BinaryBitmap(new HybridBinarizer(source));
-        QRCodeReader reader = new QRCodeReader();
-        try {
-            return reader.decode(bitmap1, hints);
-        } catch (NotFoundException e) {
-            e.printStackTrace();
-        } catch (ChecksumException e) {
-            e.printStackTrace();
-        } catch (FormatException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
-
     @Override
     protected void onResume() {
         super.onResume();
-        SurfaceView surfaceView = (SurfaceView) findViewById(R.id.scanner_view);
-        SurfaceHolder surfaceHolder = surfaceView.getHolder();
-        if (hasSurface) {
-            initCamera(surfaceHolder);
-        } else {
-            surfaceHolder.addCallback(this);
-            surfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
-        }
-        decodeFormats = null;
-        characterSet = null;
-
+        // 每次回到扫码界面算一次新的扫码，从这里开始计时
+        telemetry = new ScanTelemetry(Build.MANUFACTURER + " " + Build.MODEL);
+        viewfinderView.setTelemetry(
+                getIntent().getBooleanExtra(Intents.Scan.SHOW_TELEMETRY, false) ? telemetry : null);
+        // 扫描的格式由调用方通过 Intents.Scan 声明，配置扫码只需要二维码
+        scanProfile = ScanProfile.fromIntent(getIntent());
         playBeep = true;
         AudioManager audioService = (AudioManager) getSystemService(AUDIO_SERVICE);
         if (audioService.getRingerMode() != AudioManager.RINGER_MODE_NORMAL) {
             playBeep = false;
         }
-        initBeepSound();
         vibrate = true;
 
+        // 不等 Surface，先在相机线程上打开相机，界面可以马上显示出来
+        final int session = ++cameraSession;
+        CameraManager.get().openDriverAsync(new CameraManager.OpenCallback() {
+            @Override
+            public void onDriverOpened(boolean opened, long openNanos) {
+                if (session != cameraSession) {
+                    // 已经 onPause 了，排在后面的 closeDriverAsync 会关掉相机
+                    return;
+                }
+                telemetry.cameraOpened(openNanos);
+                if (!opened) {
+                    return;
+                }
+                cameraOpened = true;
+                startPreviewIfReady();
+                // 提示音等相机打开之后再加载，不和相机抢启动时间
+                initBeepSound();
+            }
+        });
+        SurfaceView surfaceView = (SurfaceView) findViewById(R.id.scanner_view);
+        SurfaceHolder holder = surfaceView.getHolder();
+        if (!hasSurface) {
+            holder.addCallback(this);
+            holder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+        }
+
         //quit the scan view
 //		cancelScanButton.setOnClickListener(new OnClickListener() {
 //
@@ -220,16 +218,54 @@ public class CaptureActivity extends AppCompatActivity implements Callback {
     @Override
     protected void onPause() {
         super.onPause();
+        cameraSession++;
+        cameraOpened = false;
+        previewStarting = false;
         if (handler != null) {
             handler.quitSynchronously();
             handler = null;
         }
-        CameraManager.get().closeDriver();
+        // 排在打开相机之后执行，打开还没完成也不会漏关
+        CameraManager.get().closeDriverAsync();
+        exportTelemetry(telemetry);
+    }
+
+    /**
+     * 把这次扫码的统计追加到应用的外部文件目录（Android/data/包名/files），可以连电脑取出来，
+     * 用来针对具体的手机调整扫码参数
+     */
+    private void exportTelemetry(final ScanTelemetry session) {
+        if (session == null || session.getFramesReceived() == 0) {
+            return;
+        }
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        final File file = new File(dir, TELEMETRY_FILE);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    session.export(file, TELEMETRY_MAX_BYTES);
+                } catch (IOException e) {
+                    Log.w(TAG, "保存扫码统计失败", e);
+                }
+            }
+        }).start();
     }
 
     @Override
     protected void onDestroy() {
         inactivityTimer.shutdown();
+        galleryDecoder.shutdown();
+        if (soundPool != null) {
+            soundPool.release();
+            soundPool = null;
+        }
+        if (mProgress != null && mProgress.isShowing()) {
+            mProgress.dismiss();
+        }
         super.onDestroy();
     }
 
@@ -237,7 +273,7 @@ public class CaptureActivity extends AppCompatActivity implements Callback {
      * Handler scan result
      *
      * @param result
-     * @param barcode
+     * @param barcode 扫描到的图像，只有 Intents.Scan.SAVE_BARCODE_BITMAP 为 true 时才有，否则为 null
      */
     public void handleDecode(Result result, Bitmap barcode) {
         inactivityTimer.onActivity();
@@ -260,18 +296,46 @@ public class CaptureActivity extends AppCompatActivity implements Callback {
         CaptureActivity.this.finish();
     }
 
-    private void initCamera(SurfaceHolder surfaceHolder) {
-        try {
-            CameraManager.get().openDriver(surfaceHolder);
-        } catch (IOException ioe) {
-            return;
-        } catch (RuntimeException e) {
+    /**
+     * 相机已经打开、Surface 也已经创建时，把预览接到 Surface 上，在相机线程上开始预览，
+     * 预览开始后再创建 handler 开始解码
+     */
+    private void startPreviewIfReady() {
+        if (!cameraOpened || !hasSurface || handler != null || previewStarting) {
             return;
         }
-        if (handler == null) {
-            handler = new CaptureActivityHandler(this, decodeFormats,
-                    characterSet);
+        try {
+            CameraManager.get().attachSurface(surfaceHolder);
+        } catch (IOException | RuntimeException e) {
+            onPreviewFailed(e);
+            return;
         }
+        previewStarting = true;
+        final int session = cameraSession;
+        CameraManager.get().startPreviewAsync(new CameraManager.StartCallback() {
+            @Override
+            public void onPreviewStarted(boolean started) {
+                if (session != cameraSession || handler != null) {
+                    return;
+                }
+                previewStarting = false;
+                if (!started) {
+                    // 之后 Surface 重新创建时 startPreviewIfReady() 还会再试
+                    onPreviewFailed(null);
+                    return;
+                }
+                // 预览已经开始，构造里的 startPreview() 不会再做什么
+                handler = new CaptureActivityHandler(CaptureActivity.this, scanProfile);
+            }
+        });
+    }
+
+    /**
+     * 预览接不上或开不起来时提示用户，不然只能看到黑屏
+     */
+    private void onPreviewFailed(Exception e) {
+        Log.w(TAG, "相机预览无法显示", e);
+        Toast.makeText(CaptureActivity.this, "相机预览无法显示", Toast.LENGTH_SHORT).show();
     }
 
     @Override
@@ -284,7 +348,8 @@ public class CaptureActivity extends AppCompatActivity implements Callback {
     public void surfaceCreated(SurfaceHolder holder) {
         if (!hasSurface) {
             hasSurface = true;
-            initCamera(holder);
+            surfaceHolder = holder;
+            startPreviewIfReady();
         }
 
     }
@@ -303,40 +368,46 @@ public class CaptureActivity extends AppCompatActivity implements Callback {
         return handler;
     }
 
+    /**
+     * 当前这次扫码的统计，解码线程往里记录
+     */
+    public ScanTelemetry getTelemetry() {
+        return telemetry;
+    }
+
     public void drawViewfinder() {
         viewfinderView.drawViewfinder();
 
     }
 
     private void initBeepSound() {
-        if (playBeep && mediaPlayer == null) {
+        if (playBeep && soundPool == null) {
             // The volume on STREAM_SYSTEM is not adjustable, and users found it
             // too loud,
             // so we now play on the music stream.
             setVolumeControlStream(AudioManager.STREAM_MUSIC);
-            mediaPlayer = new MediaPlayer();
-            mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            mediaPlayer.setOnCompletionListener(beepListener);
-
-            AssetFileDescriptor file = getResources().openRawResourceFd(
-                    R.raw.beep);
-            try {
-                mediaPlayer.setDataSource(file.getFileDescriptor(),
-                        file.getStartOffset(), file.getLength());
-                file.close();
-                mediaPlayer.setVolume(BEEP_VOLUME, BEEP_VOLUME);
-                mediaPlayer.prepare();
-            } catch (IOException e) {
-                mediaPlayer = null;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                soundPool = new SoundPool.Builder()
+                        .setMaxStreams(1)
+                        .setAudioAttributes(new AudioAttributes.Builder()
+                                .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                                .build())
+                        .build();
+            } else {
+                soundPool = new SoundPool(1, AudioManager.STREAM_MUSIC, 0);
             }
+            // load() 在 SoundPool 自己的线程里解码，不会像 MediaPlayer.prepare() 那样卡住界面
+            beepSoundId = soundPool.load(this, R.raw.beep, 1);
         }
     }
 
     private static final long VIBRATE_DURATION = 200L;
 
     private void playBeepSoundAndVibrate() {
-        if (playBeep && mediaPlayer != null) {
-            mediaPlayer.start();
+        if (playBeep && soundPool != null) {
+            // 还没加载完时 play() 什么也不做
+            soundPool.play(beepSoundId, BEEP_VOLUME, BEEP_VOLUME, 1, 0, 1f);
         }
         if (vibrate) {
             Vibrator vibrator = (Vibrator) getSystemService(VIBRATOR_SERVICE);
@@ -344,15 +415,6 @@ public class CaptureActivity extends AppCompatActivity implements Callback {
         }
     }
 
-    /**
-     * When the beep has finished playing, rewind to queue up another one.
-     */
-    private final OnCompletionListener beepListener = new OnCompletionListener() {
-        public void onCompletion(MediaPlayer mediaPlayer) {
-            mediaPlayer.seekTo(0);
-        }
-    };
-
     /**
      *  闪光灯开关按钮
      */
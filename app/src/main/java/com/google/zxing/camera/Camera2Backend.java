@@ -0,0 +1,483 @@
+package com.google.zxing.camera;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drives the back camera through the camera2 API, for devices whose camera2 support is better
+ * than LEGACY (on LEGACY devices camera2 is itself a wrapper around the old API).
+ *
+ * Preview goes straight to the SurfaceView; decode frames come from a YUV_420_888 ImageReader.
+ * Only the Y plane of a frame is copied, into one of a few pooled arrays, and the Image is closed
+ * right away so the camera never waits on the decoder. The copy is a bulk get() when the plane is
+ * tightly packed, which costs far less than the decode it feeds. Frames are delivered exactly as
+ * {@link PreviewCallback} delivers them: landscape, what/width/height/data in a Message, and given
+ * back through {@link CameraManager#releasePreviewFrame(byte[])}.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+final class Camera2Backend implements SurfaceHolder.Callback {
+
+  private static final String TAG = Camera2Backend.class.getSimpleName();
+
+  private static final long OPEN_TIMEOUT_MS = 2500L;
+
+  private final Context context;
+  private final CameraConfigurationManager configManager;
+  private final int bufferCount;
+  private final Object frameLock = new Object();
+
+  private HandlerThread cameraThread;
+  private Handler cameraHandler;
+  private String cameraId;
+  private CameraDevice device;
+  private CameraCaptureSession session;
+  private CaptureRequest.Builder requestBuilder;
+  private ImageReader imageReader;
+  private SurfaceHolder holder;
+  private Size previewSize;
+  // Sensor pixels that focus and metering regions are given in, and how many of each it takes.
+  private Rect activeArray;
+  private int maxAfRegions;
+  private int maxAeRegions;
+  private boolean previewRequested;
+  private boolean torch;
+
+  // Guarded by frameLock.
+  private Handler frameHandler;
+  private int frameMessage;
+  private BlockingQueue<byte[]> framePool;
+
+  Camera2Backend(Context context, CameraConfigurationManager configManager, int bufferCount) {
+    this.context = context;
+    this.configManager = configManager;
+    this.bufferCount = bufferCount;
+  }
+
+  /**
+   * Whether the back camera can be driven through camera2 at better than LEGACY level.
+   */
+  static boolean isSupported(Context context) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+      return false;
+    }
+    return findBackCamera(context) != null;
+  }
+
+  private static String findBackCamera(Context context) {
+    android.hardware.camera2.CameraManager manager = (android.hardware.camera2.CameraManager)
+        context.getSystemService(Context.CAMERA_SERVICE);
+    if (manager == null) {
+      return null;
+    }
+    try {
+      for (String id : manager.getCameraIdList()) {
+        CameraCharacteristics characteristics = manager.getCameraCharacteristics(id);
+        Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+        if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK && level != null
+            && level != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+          return id;
+        }
+      }
+    } catch (CameraAccessException | RuntimeException e) {
+      Log.w(TAG, "Unable to query cameras", e);
+    }
+    return null;
+  }
+
+  /**
+   * Opens the camera and picks the preview size. Blocks until the device is open, like
+   * Camera.open() does; the surface is attached separately with {@link #attach}.
+   */
+  @SuppressLint("MissingPermission")
+  void open(int downshift) throws IOException {
+    android.hardware.camera2.CameraManager manager = (android.hardware.camera2.CameraManager)
+        context.getSystemService(Context.CAMERA_SERVICE);
+    cameraId = findBackCamera(context);
+    if (manager == null || cameraId == null) {
+      throw new IOException("No camera2 back camera");
+    }
+    cameraThread = new HandlerThread("Camera2");
+    cameraThread.start();
+    cameraHandler = new Handler(cameraThread.getLooper());
+
+    final CountDownLatch opened = new CountDownLatch(1);
+    final CameraDevice[] result = new CameraDevice[1];
+    final AtomicBoolean abandoned = new AtomicBoolean();
+    try {
+      CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+      StreamConfigurationMap map =
+          characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+      previewSize = choosePreviewSize(map, downshift);
+      activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+      Integer afRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
+      Integer aeRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AE);
+      maxAfRegions = afRegions == null ? 0 : afRegions;
+      maxAeRegions = aeRegions == null ? 0 : aeRegions;
+      configManager.initFromCamera2(new Point(previewSize.getWidth(), previewSize.getHeight()));
+
+      manager.openCamera(cameraId, new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice camera) {
+          if (abandoned.get()) {
+            // open() already gave up waiting.
+            camera.close();
+            return;
+          }
+          result[0] = camera;
+          opened.countDown();
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+          camera.close();
+          opened.countDown();
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+          Log.w(TAG, "Camera error " + error);
+          camera.close();
+          opened.countDown();
+        }
+      }, cameraHandler);
+      if (!opened.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        abandoned.set(true);
+      }
+      if (result[0] == null) {
+        throw new IOException("Camera2 open failed");
+      }
+    } catch (CameraAccessException | InterruptedException | RuntimeException e) {
+      close();
+      throw new IOException(e);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    device = result[0];
+
+    imageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(),
+        ImageFormat.YUV_420_888, 2);
+    imageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+      @Override
+      public void onImageAvailable(ImageReader reader) {
+        onFrame(reader);
+      }
+    }, cameraHandler);
+    synchronized (frameLock) {
+      framePool = new ArrayBlockingQueue<byte[]>(bufferCount);
+      for (int i = 0; i < bufferCount; i++) {
+        framePool.offer(new byte[previewSize.getWidth() * previewSize.getHeight()]);
+      }
+    }
+  }
+
+  /**
+   * Draws the preview into {@code holder}. Call on the main thread, since the surface is resized.
+   */
+  void attach(SurfaceHolder holder) {
+    if (this.holder != null) {
+      this.holder.removeCallback(this);
+    }
+    // The SurfaceView must produce buffers of a size the camera supports.
+    this.holder = holder;
+    holder.addCallback(this);
+    holder.setFixedSize(previewSize.getWidth(), previewSize.getHeight());
+    createSessionIfReady();
+  }
+
+  /**
+   * Chooses among the sizes both the ImageReader and the SurfaceView can take; see
+   * {@link PreviewSizeSelector}.
+   */
+  private Size choosePreviewSize(StreamConfigurationMap map, int downshift) {
+    List<Size> surfaceSizes = Arrays.asList(map.getOutputSizes(SurfaceHolder.class));
+    List<PreviewSizeSelector.Size> sizes = new ArrayList<PreviewSizeSelector.Size>();
+    for (Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+      if (surfaceSizes.contains(size)) {
+        sizes.add(new PreviewSizeSelector.Size(size.getWidth(), size.getHeight()));
+      }
+    }
+    Point screen = configManager.initScreenResolution();
+    PreviewSizeSelector.Size best = PreviewSizeSelector.select(sizes, screen.x, screen.y, downshift);
+    if (best == null) {
+      throw new IllegalStateException("No YUV size usable for preview");
+    }
+    Log.d(TAG, "Camera2 preview size: " + best);
+    return new Size(best.width, best.height);
+  }
+
+  void close() {
+    stopPreview();
+    if (holder != null) {
+      holder.removeCallback(this);
+      holder = null;
+    }
+    if (device != null) {
+      device.close();
+      device = null;
+    }
+    if (imageReader != null) {
+      imageReader.close();
+      imageReader = null;
+    }
+    if (cameraThread != null) {
+      cameraThread.quitSafely();
+      cameraThread = null;
+      cameraHandler = null;
+    }
+    synchronized (frameLock) {
+      framePool = null;
+      frameHandler = null;
+    }
+  }
+
+  void startPreview() {
+    previewRequested = true;
+    createSessionIfReady();
+  }
+
+  void stopPreview() {
+    previewRequested = false;
+    if (session != null) {
+      session.close();
+      session = null;
+    }
+    requestBuilder = null;
+    synchronized (frameLock) {
+      frameHandler = null;
+    }
+  }
+
+  private void createSessionIfReady() {
+    if (!previewRequested || session != null || device == null || holder == null) {
+      return;
+    }
+    Rect frame = holder.getSurfaceFrame();
+    if (frame.width() != previewSize.getWidth() || frame.height() != previewSize.getHeight()) {
+      // Wait for surfaceChanged() with the fixed size.
+      return;
+    }
+    try {
+      Surface previewSurface = holder.getSurface();
+      requestBuilder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+      requestBuilder.addTarget(previewSurface);
+      requestBuilder.addTarget(imageReader.getSurface());
+      requestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
+          CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+      MeteringRectangle[] regions = framingRegions();
+      if (regions != null && maxAfRegions > 0) {
+        requestBuilder.set(CaptureRequest.CONTROL_AF_REGIONS, regions);
+      }
+      if (regions != null && maxAeRegions > 0) {
+        requestBuilder.set(CaptureRequest.CONTROL_AE_REGIONS, regions);
+      }
+      requestBuilder.set(CaptureRequest.FLASH_MODE,
+          torch ? CaptureRequest.FLASH_MODE_TORCH : CaptureRequest.FLASH_MODE_OFF);
+      device.createCaptureSession(Arrays.asList(previewSurface, imageReader.getSurface()),
+          new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(CameraCaptureSession configured) {
+              synchronized (CameraManager.get()) {
+                if (!previewRequested || device == null) {
+                  configured.close();
+                  return;
+                }
+                session = configured;
+                setRepeatingRequest();
+              }
+            }
+
+            @Override
+            public void onConfigureFailed(CameraCaptureSession failed) {
+              Log.w(TAG, "Camera2 session configuration failed");
+            }
+          }, cameraHandler);
+    } catch (CameraAccessException | RuntimeException e) {
+      Log.w(TAG, "Unable to start camera2 preview", e);
+    }
+  }
+
+  /**
+   * The framing rect in sensor coordinates, for focus and metering. The preview is assumed to be
+   * the centre of the sensor cropped to the preview's aspect ratio, which is what the camera does
+   * without a zoom crop.
+   */
+  private MeteringRectangle[] framingRegions() {
+    Rect area = CameraManager.get().getFramingRectInLandscapePreview();
+    if (area == null || activeArray == null) {
+      return null;
+    }
+    int previewWidth = previewSize.getWidth();
+    int previewHeight = previewSize.getHeight();
+    int cropWidth = activeArray.width();
+    int cropHeight = activeArray.height();
+    if ((long) cropWidth * previewHeight > (long) cropHeight * previewWidth) {
+      cropWidth = cropHeight * previewWidth / previewHeight;
+    } else {
+      cropHeight = cropWidth * previewHeight / previewWidth;
+    }
+    int offsetX = activeArray.left + (activeArray.width() - cropWidth) / 2;
+    int offsetY = activeArray.top + (activeArray.height() - cropHeight) / 2;
+    int left = offsetX + area.left * cropWidth / previewWidth;
+    int top = offsetY + area.top * cropHeight / previewHeight;
+    int right = offsetX + area.right * cropWidth / previewWidth;
+    int bottom = offsetY + area.bottom * cropHeight / previewHeight;
+    if (right <= left || bottom <= top) {
+      return null;
+    }
+    return new MeteringRectangle[] {new MeteringRectangle(left, top, right - left, bottom - top,
+        MeteringRectangle.METERING_WEIGHT_MAX)};
+  }
+
+  private void setRepeatingRequest() {
+    if (session == null || requestBuilder == null) {
+      return;
+    }
+    try {
+      session.setRepeatingRequest(requestBuilder.build(), null, cameraHandler);
+    } catch (CameraAccessException | RuntimeException e) {
+      Log.w(TAG, "Unable to set repeating request", e);
+    }
+  }
+
+  boolean setTorch(boolean on) {
+    torch = on;
+    if (requestBuilder == null) {
+      return false;
+    }
+    requestBuilder.set(CaptureRequest.FLASH_MODE,
+        on ? CaptureRequest.FLASH_MODE_TORCH : CaptureRequest.FLASH_MODE_OFF);
+    setRepeatingRequest();
+    return true;
+  }
+
+  boolean isPreviewing() {
+    return previewRequested && device != null;
+  }
+
+  void requestFrame(Handler handler, int message) {
+    synchronized (frameLock) {
+      frameHandler = handler;
+      frameMessage = message;
+    }
+  }
+
+  void releaseFrame(byte[] data) {
+    synchronized (frameLock) {
+      if (framePool != null && data != null
+          && data.length == previewSize.getWidth() * previewSize.getHeight()) {
+        framePool.offer(data);
+      }
+    }
+  }
+
+  private void onFrame(ImageReader reader) {
+    Image image;
+    try {
+      image = reader.acquireLatestImage();
+    } catch (RuntimeException e) {
+      return;
+    }
+    if (image == null) {
+      return;
+    }
+    try {
+      Handler handler;
+      int what;
+      byte[] data;
+      synchronized (frameLock) {
+        handler = frameHandler;
+        what = frameMessage;
+        data = handler == null || framePool == null ? null : framePool.poll();
+        if (data != null) {
+          frameHandler = null;
+        }
+      }
+      if (data == null) {
+        return;
+      }
+      copyLuminance(image, data);
+      Message message = handler.obtainMessage(what, image.getWidth(), image.getHeight(), data);
+      message.sendToTarget();
+    } finally {
+      image.close();
+    }
+  }
+
+  private static void copyLuminance(Image image, byte[] data) {
+    Image.Plane plane = image.getPlanes()[0];
+    ByteBuffer buffer = plane.getBuffer();
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int rowStride = plane.getRowStride();
+    int pixelStride = plane.getPixelStride();
+    buffer.rewind();
+    if (pixelStride == 1 && rowStride == width) {
+      buffer.get(data, 0, width * height);
+      return;
+    }
+    if (pixelStride == 1) {
+      for (int y = 0; y < height; y++) {
+        buffer.position(y * rowStride);
+        buffer.get(data, y * width, width);
+      }
+      return;
+    }
+    for (int y = 0; y < height; y++) {
+      int rowStart = y * rowStride;
+      int outputOffset = y * width;
+      for (int x = 0; x < width; x++) {
+        data[outputOffset + x] = buffer.get(rowStart + x * pixelStride);
+      }
+    }
+  }
+
+  @Override
+  public void surfaceCreated(SurfaceHolder holder) {
+  }
+
+  @Override
+  public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+    synchronized (CameraManager.get()) {
+      createSessionIfReady();
+    }
+  }
+
+  @Override
+  public void surfaceDestroyed(SurfaceHolder holder) {
+  }
+
+}
@@ -17,6 +17,7 @@
 package com.google.zxing.camera;
 
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.hardware.Camera;
 import android.os.Build;
@@ -24,6 +25,8 @@ import android.util.Log;
 import android.view.Display;
 import android.view.WindowManager;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 final class CameraConfigurationManager {
@@ -48,11 +51,23 @@ final class CameraConfigurationManager {
   /**
    * Reads, one time, values from the camera that are needed by the app.
    */
-  void initFromCameraParameters(Camera camera) {
+  void initFromCameraParameters(Camera camera, int downshift) {
     Camera.Parameters parameters = camera.getParameters();
     previewFormat = parameters.getPreviewFormat();
     previewFormatString = parameters.get("preview-format");
     Log.d(TAG, "Default preview format: " + previewFormat + '/' + previewFormatString);
+    Point screenResolutionForCamera = initScreenResolution();
+
+    cameraResolution = getCameraResolution(parameters, screenResolutionForCamera, downshift);
+    Log.d(TAG, "Camera resolution: " + cameraResolution);
+
+  }
+
+  /**
+   * Reads the screen size and returns it in landscape orientation, which is how the camera
+   * reports its sizes.
+   */
+  Point initScreenResolution() {
     WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
     Display display = manager.getDefaultDisplay();
     screenResolution = new Point(display.getWidth(), display.getHeight());
@@ -67,10 +82,18 @@ final class CameraConfigurationManager {
       screenResolutionForCamera.x = screenResolution.y;
       screenResolutionForCamera.y = screenResolution.x;
     }
+    return screenResolutionForCamera;
+  }
 
-    cameraResolution = getCameraResolution(parameters, screenResolutionForCamera);
-    Log.d(TAG, "Camera resolution: " + screenResolution);
-
+  /**
+   * Used instead of {@link #initFromCameraParameters} when the camera2 backend is active. Its
+   * frames carry only the Y plane, which the NV21 luminance sources read the same way.
+   */
+  void initFromCamera2(Point previewSize) {
+    previewFormat = ImageFormat.NV21;
+    previewFormatString = "yuv420sp";
+    cameraResolution = previewSize;
+    Log.d(TAG, "Camera2 resolution: " + cameraResolution);
   }
 
   /**
@@ -107,7 +130,20 @@ final class CameraConfigurationManager {
     return previewFormatString;
   }
 
-  private static Point getCameraResolution(Camera.Parameters parameters, Point screenResolution) {
+  private static Point getCameraResolution(Camera.Parameters parameters, Point screenResolution,
+      int downshift) {
+
+    List<Camera.Size> supported = parameters.getSupportedPreviewSizes();
+    if (supported != null && !supported.isEmpty()) {
+      List<PreviewSizeSelector.Size> sizes =
+          new ArrayList<PreviewSizeSelector.Size>(supported.size());
+      for (Camera.Size size : supported) {
+        sizes.add(new PreviewSizeSelector.Size(size.width, size.height));
+      }
+      PreviewSizeSelector.Size best = PreviewSizeSelector.select(sizes, screenResolution.x,
+          screenResolution.y, downshift);
+      return new Point(best.width, best.height);
+    }
 
     String previewSizeValueString = parameters.get("preview-size-values");
     // saw this on Xperia
@@ -17,12 +17,16 @@
 package com.google.zxing.camera;
 
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.PixelFormat;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
 import android.view.SurfaceHolder;
 
 import java.io.IOException;
@@ -41,9 +45,33 @@ public final class CameraManager {
     private static final int MIN_FRAME_HEIGHT = 240;
     private static final int MAX_FRAME_WIDTH = 480;
     private static final int MAX_FRAME_HEIGHT = 360;
+    // Number of preview buffers handed to the camera. One can be filling, one waiting in the
+    // decode queue and the rest being decoded, one per decode worker (at most three).
+    private static final int PREVIEW_BUFFER_COUNT = 5;
 
     private static CameraManager cameraManager;
 
+    /**
+     * Called on the main thread once {@link #openDriverAsync} is done.
+     */
+    public interface OpenCallback {
+        /**
+         * @param opened    Whether the camera opened.
+         * @param openNanos How long opening and configuring it took.
+         */
+        void onDriverOpened(boolean opened, long openNanos);
+    }
+
+    /**
+     * Called on the main thread once {@link #startPreviewAsync} is done.
+     */
+    public interface StartCallback {
+        /**
+         * @param started Whether the preview is running; false when the camera refused to start it.
+         */
+        void onPreviewStarted(boolean started);
+    }
+
     static final int SDK_INT; // Later we can use Build.VERSION.SDK_INT
 
     static {
@@ -59,21 +87,32 @@ public final class CameraManager {
 
     private final Context context;
     private final CameraConfigurationManager configManager;
+    private final PreviewResolutionTuner resolutionTuner;
     private Camera camera;
+    // Set instead of camera when the camera2 backend drives the hardware.
+    private Camera2Backend camera2;
     private Rect framingRect;
     private Rect framingRectInPreview;
-    private boolean initialized;
     private boolean previewing;
     private final boolean useOneShotPreviewCallback;
+    private final boolean useBufferedPreviewCallback;
+    private boolean useCamera2;
+    private int previewBufferSize;
     /**
      * Preview frames are delivered here, which we pass on to the registered handler. Make sure to
      * clear the handler so it will only receive one message.
      */
     private final PreviewCallback previewCallback;
     /**
-     * Autofocus callbacks arrive here, and are dispatched to the Handler which requested them.
+     * Chooses the focus mode and runs the occasional one-shot autofocus pass.
      */
-    private final AutoFocusCallback autoFocusCallback;
+    private final FocusController focusController;
+    // Opening, configuring, starting and closing the camera take hundreds of milliseconds on
+    // slow phones, so they run here instead of on the main thread. One thread for the whole
+    // process keeps a close from one scan ordered before the open of the next. Cameras opened on
+    // it also deliver their callbacks to it.
+    private Handler cameraHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     /**
      * Initializes this static object with the Context of the calling Activity.
@@ -99,6 +138,7 @@ public final class CameraManager {
 
         this.context = context;
         this.configManager = new CameraConfigurationManager(context);
+        this.resolutionTuner = new PreviewResolutionTuner(context);
 
         // Camera.setOneShotPreviewCallback() has a race condition in Cupcake, so we use the older
         // Camera.setPreviewCallback() on 1.5 and earlier. For Donut and later, we need to use
@@ -106,9 +146,15 @@ public final class CameraManager {
         // to run out of memory. We can't use SDK_INT because it was introduced in the Donut SDK.
         //useOneShotPreviewCallback = Integer.parseInt(Build.VERSION.SDK) > Build.VERSION_CODES.CUPCAKE;
         useOneShotPreviewCallback = Integer.parseInt(Build.VERSION.SDK) > 3; // 3 = Cupcake
-
-        previewCallback = new PreviewCallback(configManager, useOneShotPreviewCallback);
-        autoFocusCallback = new AutoFocusCallback();
+        // From Froyo on the camera can fill buffers we own, so no frame is allocated per callback.
+        useBufferedPreviewCallback = SDK_INT >= 8; // 8 = Froyo
+        // camera2 gives direct YUV planes and continuous autofocus, but only below LEGACY level is
+        // it more than a wrapper around the old API.
+        useCamera2 = Camera2Backend.isSupported(context);
+
+        previewCallback = new PreviewCallback(configManager, useOneShotPreviewCallback,
+            useBufferedPreviewCallback);
+        focusController = new FocusController();
     }
 
     /**
@@ -118,18 +164,70 @@ public final class CameraManager {
      * @throws IOException Indicates the camera driver failed to open.
      */
     public void openDriver(SurfaceHolder holder) throws IOException {
-        if (camera == null) {
+        openDriver();
+        attachSurface(holder);
+    }
+
+    /**
+     * Opens the camera driver on the camera thread, so the scanner screen can be laid out and its
+     * surface created at the same time. Attach the surface with {@link #attachSurface} once both
+     * are ready.
+     */
+    public void openDriverAsync(final OpenCallback callback) {
+        cameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                boolean opened;
+                try {
+                    openDriver();
+                    opened = true;
+                } catch (IOException | RuntimeException e) {
+                    Log.w(TAG, "Unable to open the camera", e);
+                    opened = false;
+                }
+                final boolean result = opened;
+                final long openNanos = System.nanoTime() - start;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onDriverOpened(result, openNanos);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Opens the camera driver and initializes the hardware parameters, without a surface yet.
+     *
+     * @throws IOException Indicates the camera driver failed to open.
+     */
+    public synchronized void openDriver() throws IOException {
+        if (camera2 == null && camera == null && useCamera2) {
+            Camera2Backend backend = new Camera2Backend(context, configManager, PREVIEW_BUFFER_COUNT);
+            try {
+                backend.open(resolutionTuner.getDownshift());
+                camera2 = backend;
+                onCameraResolutionChanged();
+                return;
+            } catch (IOException e) {
+                Log.w(TAG, "Camera2 unavailable, falling back to the old camera API", e);
+                useCamera2 = false;
+            }
+        }
+        if (camera2 == null && camera == null) {
             camera = Camera.open();
             if (camera == null) {
                 throw new IOException();
             }
-            camera.setPreviewDisplay(holder);
 
-            if (!initialized) {
-                initialized = true;
-                configManager.initFromCameraParameters(camera);
-            }
+            // Re-read on every open: the decode-speed downshift may have changed since.
+            configManager.initFromCameraParameters(camera, resolutionTuner.getDownshift());
+            onCameraResolutionChanged();
             configManager.setDesiredCameraParameters(camera);
+            focusController.configure(camera, getFramingRectInLandscapePreview(),
+                    configManager.getCameraResolution());
 
             //FIXME
             //     SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -141,12 +239,96 @@ public final class CameraManager {
         }
     }
 
+    /**
+     * Points the open camera at the surface preview frames are drawn into. Call on the main
+     * thread: the camera2 backend resizes the surface to the preview size.
+     *
+     * @throws IOException Indicates the surface could not be used.
+     */
+    public synchronized void attachSurface(SurfaceHolder holder) throws IOException {
+        if (camera2 != null) {
+            camera2.attach(holder);
+        } else if (camera != null) {
+            camera.setPreviewDisplay(holder);
+        }
+    }
+
+    /**
+     * {@link #startPreview} on the camera thread, then {@code callback} on the main thread with
+     * whether it worked.
+     */
+    public void startPreviewAsync(final StartCallback callback) {
+        cameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                boolean ok;
+                try {
+                    startPreview();
+                    ok = true;
+                } catch (RuntimeException e) {
+                    // The camera was lost between opening and now.
+                    Log.w(TAG, "Unable to start the preview", e);
+                    ok = false;
+                }
+                final boolean started = ok;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPreviewStarted(started);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * {@link #closeDriver} on the camera thread, after any open or start still queued there.
+     */
+    public void closeDriverAsync() {
+        cameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                closeDriver();
+            }
+        });
+    }
+
+    private synchronized Handler cameraHandler() {
+        if (cameraHandler == null) {
+            HandlerThread thread = new HandlerThread("CameraThread");
+            thread.start();
+            cameraHandler = new Handler(thread.getLooper());
+        }
+        return cameraHandler;
+    }
+
+    private synchronized void onCameraResolutionChanged() {
+        framingRectInPreview = null;
+        resolutionTuner.reset();
+    }
+
+    /**
+     * Feeds the time one preview frame took to decode into the preview size selection for the
+     * next time the camera opens; see {@link PreviewResolutionTuner}.
+     */
+    public void reportDecodeTime(long millis) {
+        resolutionTuner.onFrameDecoded(millis);
+    }
+
     /**
      * Closes the camera driver if still in use.
      */
-    public void closeDriver() {
+    public synchronized void closeDriver() {
+        // The preview may have been started on the camera thread after the activity stopped it.
+        stopPreview();
+        if (camera2 != null) {
+            camera2.close();
+            camera2 = null;
+            previewing = false;
+        }
         if (camera != null) {
             FlashlightManager.disableFlashlight();
+            focusController.release();
             camera.release();
             camera = null;
         }
@@ -155,24 +337,50 @@ public final class CameraManager {
     /**
      * Asks the camera hardware to begin drawing preview frames to the screen.
      */
-    public void startPreview() {
+    public synchronized void startPreview() {
+        if (camera2 != null && !previewing) {
+            camera2.startPreview();
+            previewing = true;
+            return;
+        }
         if (camera != null && !previewing) {
+            if (useBufferedPreviewCallback) {
+                Point cameraResolution = configManager.getCameraResolution();
+                int bitsPerPixel = ImageFormat.getBitsPerPixel(configManager.getPreviewFormat());
+                if (bitsPerPixel <= 0) {
+                    bitsPerPixel = 12; // NV21
+                }
+                previewBufferSize = cameraResolution.x * cameraResolution.y * bitsPerPixel / 8;
+                for (int i = 0; i < PREVIEW_BUFFER_COUNT; i++) {
+                    camera.addCallbackBuffer(new byte[previewBufferSize]);
+                }
+                camera.setPreviewCallbackWithBuffer(previewCallback);
+            }
             camera.startPreview();
             previewing = true;
+            focusController.onPreviewStarted();
         }
     }
 
     /**
      * Tells the camera to stop drawing preview frames.
      */
-    public void stopPreview() {
+    public synchronized void stopPreview() {
+        if (camera2 != null && previewing) {
+            camera2.stopPreview();
+            previewing = false;
+            return;
+        }
         if (camera != null && previewing) {
-            if (!useOneShotPreviewCallback) {
+            if (useBufferedPreviewCallback) {
+                // Also drops the buffers queued on the camera.
+                camera.setPreviewCallbackWithBuffer(null);
+            } else if (!useOneShotPreviewCallback) {
                 camera.setPreviewCallback(null);
             }
+            focusController.stop();
             camera.stopPreview();
             previewCallback.setHandler(null, 0);
-            autoFocusCallback.setHandler(null, 0);
             previewing = false;
         }
     }
@@ -185,9 +393,17 @@ public final class CameraManager {
      * @param handler The handler to send the message to.
      * @param message The what field of the message to be sent.
      */
-    public void requestPreviewFrame(Handler handler, int message) {
+    public synchronized void requestPreviewFrame(Handler handler, int message) {
+        if (camera2 != null && previewing) {
+            camera2.requestFrame(handler, message);
+            return;
+        }
         if (camera != null && previewing) {
             previewCallback.setHandler(handler, message);
+            if (useBufferedPreviewCallback) {
+                // The buffered callback stays registered; the next filled buffer goes to the handler.
+                return;
+            }
             if (useOneShotPreviewCallback) {
                 camera.setOneShotPreviewCallback(previewCallback);
             } else {
@@ -197,16 +413,31 @@ public final class CameraManager {
     }
 
     /**
-     * Asks the camera hardware to perform an autofocus.
+     * Gives a preview frame delivered by {@link #requestPreviewFrame} back to the camera so it can
+     * be filled again. Must be called once the decoder no longer needs the data. Frames from an
+     * earlier preview session (a different size) are simply dropped.
      *
-     * @param handler The Handler to notify when the autofocus completes.
-     * @param message The message to deliver.
+     * @param data The frame from message.obj.
+     */
+    public synchronized void releasePreviewFrame(byte[] data) {
+        if (camera2 != null) {
+            camera2.releaseFrame(data);
+            return;
+        }
+        if (useBufferedPreviewCallback && camera != null && previewing && data != null
+                && data.length == previewBufferSize) {
+            camera.addCallbackBuffer(data);
+        }
+    }
+
+    /**
+     * Tells the camera that preview frames came out blurred. With continuous focus the camera is
+     * already on it; otherwise a single autofocus pass is run, if none is in progress.
      */
-    public void requestAutoFocus(Handler handler, int message) {
+    public synchronized void requestFocus() {
+        // The camera2 backend focuses continuously on its own.
         if (camera != null && previewing) {
-            autoFocusCallback.setHandler(handler, message);
-            //Log.d(TAG, "Requesting auto-focus callback");
-            camera.autoFocus(autoFocusCallback);
+            focusController.onBlurred();
         }
     }
 
@@ -222,7 +453,7 @@ public final class CameraManager {
         if (screenResolution == null)
             return null;
         if (framingRect == null) {
-            if (camera == null) {
+            if (camera == null && camera2 == null) {
                 return null;
             }
 
@@ -292,6 +523,22 @@ public final class CameraManager {
         return framingRectInPreview;
     }
 
+    /**
+     * The framing rect in the landscape coordinates of the camera sensor, which is what focus and
+     * metering areas are given in; {@link #getFramingRectInPreview} is rotated for the portrait
+     * screen.
+     */
+    Rect getFramingRectInLandscapePreview() {
+        Point cameraResolution = configManager.getCameraResolution();
+        if (getFramingRect() == null || cameraResolution == null) {
+            return null;
+        }
+        Rect rect = getFramingRectInPreview();
+        // Rotated (x, y) is landscape (y, cameraResolution.y - 1 - x).
+        return new Rect(rect.top, cameraResolution.y - rect.right, rect.bottom,
+                cameraResolution.y - rect.left);
+    }
+
     /**
      * Converts the result points from still resolution coordinates to screen coordinates.
      *
@@ -345,6 +592,47 @@ public final class CameraManager {
                 previewFormat + '/' + previewFormatString);
     }
 
+    /**
+     * Builds a LuminanceSource over the framing rect of a landscape preview frame, as seen on the
+     * portrait screen. The frame is neither copied nor rotated; see
+     * {@link RotatedPlanarYUVLuminanceSource}.
+     *
+     * @param data   A preview frame, in the camera's landscape orientation.
+     * @param width  The width of the preview frame.
+     * @param height The height of the preview frame.
+     * @return A RotatedPlanarYUVLuminanceSource cropped to {@link #getFramingRectInPreview()}.
+     */
+    public RotatedPlanarYUVLuminanceSource buildRotatedLuminanceSource(byte[] data, int width,
+                                                                       int height) {
+        int previewFormat = configManager.getPreviewFormat();
+        String previewFormatString = configManager.getPreviewFormatString();
+        if (previewFormat != PixelFormat.YCbCr_420_SP && previewFormat != PixelFormat.YCbCr_422_SP
+                && !"yuv420p".equals(previewFormatString)) {
+            throw new IllegalArgumentException("Unsupported picture format: " +
+                    previewFormat + '/' + previewFormatString);
+        }
+        Rect rect = getFramingRectInFrame(width, height);
+        return new RotatedPlanarYUVLuminanceSource(data, width, height, rect.left, rect.top,
+                rect.width(), rect.height());
+    }
+
+    /**
+     * The framing rect clamped to a landscape frame of {@code width} x {@code height}, in the
+     * rotated coordinates of {@link RotatedPlanarYUVLuminanceSource}: height wide and width tall.
+     * The whole frame if the two do not overlap.
+     */
+    public Rect getFramingRectInFrame(int width, int height) {
+        Rect rect = getFramingRectInPreview();
+        int left = Math.max(0, rect.left);
+        int top = Math.max(0, rect.top);
+        int right = Math.min(height, rect.right);
+        int bottom = Math.min(width, rect.bottom);
+        if (right <= left || bottom <= top) {
+            return new Rect(0, 0, height, width);
+        }
+        return new Rect(left, top, right, bottom);
+    }
+
     public Context getContext() {
         return context;
     }
@@ -354,7 +642,10 @@ public final class CameraManager {
      * @param isOpen 是否开启闪光灯
      * @return boolean 操作成功/失败。
      */
-    public boolean setFlashLight(boolean isOpen) {
+    public synchronized boolean setFlashLight(boolean isOpen) {
+        if (camera2 != null && previewing) {
+            return camera2.setTorch(isOpen);
+        }
         if (camera == null || !previewing) {
             return false;
         }
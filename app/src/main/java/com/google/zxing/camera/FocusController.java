@@ -0,0 +1,174 @@
+package com.google.zxing.camera;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides how the old camera API focuses while scanning. Instead of starting a new autofocus pass
+ * every time the last one finishes, which keeps the lens hunting and stalls preview frames on many
+ * devices, the camera is put in {@link Camera.Parameters#FOCUS_MODE_CONTINUOUS_PICTURE} where it
+ * is supported and left to track on its own. Elsewhere it uses {@link
+ * Camera.Parameters#FOCUS_MODE_AUTO}: one pass when the preview starts, then only when the decoder
+ * reports that frames got blurred. Either way the focus and metering areas are the framing rect,
+ * so the camera focuses and exposes for the code rather than the background.
+ */
+final class FocusController implements Camera.AutoFocusCallback {
+
+  private static final String TAG = FocusController.class.getSimpleName();
+
+  private static final int AREA_WEIGHT = 1000;
+
+  private Camera camera;
+  private boolean continuous;
+  private boolean canFocus;
+  // Set while a one-shot pass has not reported back.
+  private volatile boolean focusing;
+
+  /**
+   * Picks the focus mode of a newly opened camera and points focus and metering at {@code area}.
+   *
+   * @param area             The framing rect in landscape preview pixels.
+   * @param cameraResolution The preview size.
+   */
+  void configure(Camera camera, Rect area, Point cameraResolution) {
+    this.camera = camera;
+    focusing = false;
+    Camera.Parameters parameters = camera.getParameters();
+    List<String> modes = parameters.getSupportedFocusModes();
+    continuous = modes != null
+        && modes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+    canFocus = continuous
+        || (modes != null && modes.contains(Camera.Parameters.FOCUS_MODE_AUTO));
+    if (continuous) {
+      parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+    } else if (canFocus) {
+      parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+    }
+    Log.d(TAG, "Focus mode: " + parameters.getFocusMode());
+    try {
+      camera.setParameters(parameters);
+    } catch (RuntimeException re) {
+      Log.w(TAG, "Camera rejected focus mode " + parameters.getFocusMode(), re);
+      if (continuous && modes.contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
+        parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+        try {
+          camera.setParameters(parameters);
+        } catch (RuntimeException re2) {
+          Log.w(TAG, "Camera rejected focus mode " + parameters.getFocusMode(), re2);
+        }
+      }
+      // Go by the mode the camera actually kept, so that blurred frames still get a one-shot
+      // pass when continuous focus was refused.
+      String mode = camera.getParameters().getFocusMode();
+      continuous = Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE.equals(mode);
+      canFocus = continuous || Camera.Parameters.FOCUS_MODE_AUTO.equals(mode)
+          || Camera.Parameters.FOCUS_MODE_MACRO.equals(mode);
+      Log.d(TAG, "Focus mode now: " + mode);
+      return;
+    }
+
+    if (area == null || cameraResolution == null) {
+      return;
+    }
+    List<Camera.Area> areas =
+        Collections.singletonList(new Camera.Area(toCameraArea(area, cameraResolution), AREA_WEIGHT));
+    boolean changed = false;
+    if (parameters.getMaxNumFocusAreas() > 0) {
+      parameters.setFocusAreas(areas);
+      changed = true;
+    }
+    if (parameters.getMaxNumMeteringAreas() > 0) {
+      parameters.setMeteringAreas(areas);
+      changed = true;
+    }
+    if (changed) {
+      try {
+        camera.setParameters(parameters);
+      } catch (RuntimeException re) {
+        // Some drivers advertise areas and then reject them; the centre weighting will do.
+        Log.w(TAG, "Camera rejected focus/metering areas " + area, re);
+      }
+    }
+  }
+
+  /**
+   * Maps a rect in preview pixels to the -1000..1000 space of {@link Camera.Area}.
+   */
+  static Rect toCameraArea(Rect area, Point cameraResolution) {
+    int left = area.left * 2000 / cameraResolution.x - 1000;
+    int top = area.top * 2000 / cameraResolution.y - 1000;
+    int right = area.right * 2000 / cameraResolution.x - 1000;
+    int bottom = area.bottom * 2000 / cameraResolution.y - 1000;
+    return new Rect(clamp(left), clamp(top), clamp(right), clamp(bottom));
+  }
+
+  private static int clamp(int value) {
+    return Math.max(-1000, Math.min(1000, value));
+  }
+
+  /**
+   * Called once the preview is running: without continuous focus, focus once for the first frames.
+   */
+  void onPreviewStarted() {
+    if (!continuous) {
+      focus();
+    }
+  }
+
+  /**
+   * Frames went soft. In continuous mode the camera is already refocusing by itself and an
+   * autoFocus() call would only lock it, so this only runs a pass in auto mode.
+   */
+  void onBlurred() {
+    if (!continuous) {
+      focus();
+    }
+  }
+
+  private void focus() {
+    if (camera == null || !canFocus || focusing) {
+      return;
+    }
+    focusing = true;
+    try {
+      camera.autoFocus(this);
+    } catch (RuntimeException re) {
+      // Thrown when the preview has just stopped.
+      Log.w(TAG, "Unable to start autofocus", re);
+      focusing = false;
+    }
+  }
+
+  /**
+   * Drops any pass in progress, when the preview stops.
+   */
+  void stop() {
+    if (camera != null && focusing) {
+      try {
+        camera.cancelAutoFocus();
+      } catch (RuntimeException re) {
+        Log.w(TAG, "Unable to cancel autofocus", re);
+      }
+    }
+    focusing = false;
+  }
+
+  /**
+   * Forgets the camera when it is released.
+   */
+  void release() {
+    stop();
+    camera = null;
+  }
+
+  @Override
+  public void onAutoFocus(boolean success, Camera camera) {
+    focusing = false;
+  }
+
+}
@@ -28,29 +28,41 @@ final class PreviewCallback implements Camera.PreviewCallback {
 
   private final CameraConfigurationManager configManager;
   private final boolean useOneShotPreviewCallback;
+  private final boolean useBufferedPreviewCallback;
   private Handler previewHandler;
   private int previewMessage;
 
-  PreviewCallback(CameraConfigurationManager configManager, boolean useOneShotPreviewCallback) {
+  PreviewCallback(CameraConfigurationManager configManager, boolean useOneShotPreviewCallback,
+      boolean useBufferedPreviewCallback) {
     this.configManager = configManager;
     this.useOneShotPreviewCallback = useOneShotPreviewCallback;
+    this.useBufferedPreviewCallback = useBufferedPreviewCallback;
   }
 
-  void setHandler(Handler previewHandler, int previewMessage) {
+  synchronized void setHandler(Handler previewHandler, int previewMessage) {
     this.previewHandler = previewHandler;
     this.previewMessage = previewMessage;
   }
 
   public void onPreviewFrame(byte[] data, Camera camera) {
     Point cameraResolution = configManager.getCameraResolution();
-    if (!useOneShotPreviewCallback) {
+    if (!useBufferedPreviewCallback && !useOneShotPreviewCallback) {
       camera.setPreviewCallback(null);
     }
-    if (previewHandler != null) {
-      Message message = previewHandler.obtainMessage(previewMessage, cameraResolution.x,
-          cameraResolution.y, data);
-      message.sendToTarget();
+    Handler handler;
+    int what;
+    // Frames are requested from both the UI thread and the decode thread.
+    synchronized (this) {
+      handler = previewHandler;
+      what = previewMessage;
       previewHandler = null;
+    }
+    if (handler != null) {
+      Message message = handler.obtainMessage(what, cameraResolution.x, cameraResolution.y, data);
+      message.sendToTarget();
+    } else if (useBufferedPreviewCallback) {
+      // Nobody wants this frame, hand the buffer straight back to the camera.
+      camera.addCallbackBuffer(data);
     } else {
       Log.d(TAG, "Got preview callback, but no handler for it");
     }
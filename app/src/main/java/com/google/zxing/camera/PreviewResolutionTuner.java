@@ -0,0 +1,79 @@
+package com.google.zxing.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Watches how long frames take to decode and moves the {@link PreviewSizeSelector} downshift up
+ * when decoding is slower than {@link #FRAME_TIME_TARGET_MS}, or back down when it is much faster.
+ * The preview size cannot change while the camera is open, so the level is stored and used the
+ * next time the scanner opens.
+ */
+final class PreviewResolutionTuner {
+
+  private static final String TAG = PreviewResolutionTuner.class.getSimpleName();
+
+  private static final String PREFS_NAME = "scanner";
+  private static final String KEY_DOWNSHIFT = "preview_downshift";
+
+  /** Average decode time per frame we aim to stay under. */
+  static final long FRAME_TIME_TARGET_MS = 50L;
+  /** Decodes averaged before each decision. */
+  private static final int WINDOW = 30;
+
+  private final SharedPreferences prefs;
+  private int downshift;
+  private long totalMillis;
+  private int samples;
+  private boolean adjusted;
+
+  PreviewResolutionTuner(Context context) {
+    prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    downshift = prefs.getInt(KEY_DOWNSHIFT, 0);
+  }
+
+  synchronized int getDownshift() {
+    return downshift;
+  }
+
+  /**
+   * Starts measuring for a newly opened camera.
+   */
+  synchronized void reset() {
+    totalMillis = 0;
+    samples = 0;
+    adjusted = false;
+  }
+
+  /**
+   * Called from the decode workers with the time one frame took.
+   */
+  synchronized void onFrameDecoded(long millis) {
+    if (adjusted) {
+      // One step per camera session; the new size has to be measured before the next.
+      return;
+    }
+    totalMillis += millis;
+    samples++;
+    if (samples < WINDOW) {
+      return;
+    }
+    long average = totalMillis / samples;
+    int next = downshift;
+    if (average > FRAME_TIME_TARGET_MS) {
+      next = Math.min(PreviewSizeSelector.MAX_DOWNSHIFT, downshift + 1);
+    } else if (average < FRAME_TIME_TARGET_MS / 3) {
+      next = Math.max(0, downshift - 1);
+    }
+    if (next != downshift) {
+      Log.d(TAG, "Average decode " + average + " ms, preview downshift " + downshift + " -> " + next);
+      downshift = next;
+      adjusted = true;
+      prefs.edit().putInt(KEY_DOWNSHIFT, next).apply();
+    }
+    totalMillis = 0;
+    samples = 0;
+  }
+
+}
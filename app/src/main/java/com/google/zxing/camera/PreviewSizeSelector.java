@@ -0,0 +1,103 @@
+package com.google.zxing.camera;
+
+import java.util.List;
+
+/**
+ * Picks the preview size to decode from. Matching the screen resolution means decoding 1080p or
+ * larger frames on modern phones, when a QR code inside the framing rect needs a few hundred
+ * pixels across. Instead this picks the smallest size whose framing region still has
+ * {@link #TARGET_REGION_SIDE} pixels on a side, among the sizes closest to the screen's aspect
+ * ratio, so the preview is not distorted.
+ *
+ * Each downshift step lowers that target by a quarter, for phones whose decode time says even
+ * that is too much; see {@link PreviewResolutionTuner}.
+ *
+ * Plain Java, so it can be tested off-device.
+ */
+public final class PreviewSizeSelector {
+
+  /** Side of the framing rect as a fraction of the short side of the preview. */
+  static final float FRAMING_FRACTION = 0.7f;
+  /** Pixels across the framing region we want at no downshift. */
+  static final int TARGET_REGION_SIDE = 480;
+  /** Sizes whose aspect ratio is this close to the best one count as matching. */
+  private static final float ASPECT_TOLERANCE = 0.05f;
+
+  public static final int MAX_DOWNSHIFT = 3;
+
+  public static final class Size {
+    public final int width;
+    public final int height;
+
+    public Size(int width, int height) {
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public String toString() {
+      return width + "x" + height;
+    }
+  }
+
+  private PreviewSizeSelector() {
+  }
+
+  /**
+   * @param sizes        Supported preview sizes, landscape.
+   * @param screenWidth  Screen width, landscape.
+   * @param screenHeight Screen height, landscape.
+   * @param downshift    0 to {@link #MAX_DOWNSHIFT}; each step lowers the pixel target.
+   * @return The chosen size, or null if {@code sizes} is empty.
+   */
+  public static Size select(List<Size> sizes, int screenWidth, int screenHeight, int downshift) {
+    if (sizes == null || sizes.isEmpty()) {
+      return null;
+    }
+    float screenAspect = (float) Math.max(screenWidth, screenHeight)
+        / Math.max(1, Math.min(screenWidth, screenHeight));
+    float bestAspectDiff = Float.MAX_VALUE;
+    for (Size size : sizes) {
+      bestAspectDiff = Math.min(bestAspectDiff, Math.abs(aspect(size) - screenAspect));
+    }
+    int target = targetRegionSide(downshift);
+
+    Size best = null;
+    Size largest = null;
+    for (Size size : sizes) {
+      if (Math.abs(aspect(size) - screenAspect) > bestAspectDiff + ASPECT_TOLERANCE) {
+        continue;
+      }
+      if (largest == null || pixels(size) > pixels(largest)) {
+        largest = size;
+      }
+      if (regionSide(size) >= target && (best == null || pixels(size) < pixels(best))) {
+        best = size;
+      }
+    }
+    // Nothing reaches the target: use the most pixels there are.
+    return best != null ? best : largest;
+  }
+
+  static int targetRegionSide(int downshift) {
+    int steps = Math.max(0, Math.min(MAX_DOWNSHIFT, downshift));
+    int target = TARGET_REGION_SIDE;
+    for (int i = 0; i < steps; i++) {
+      target = target * 3 / 4;
+    }
+    return target;
+  }
+
+  static int regionSide(Size size) {
+    return (int) (Math.min(size.width, size.height) * FRAMING_FRACTION);
+  }
+
+  private static float aspect(Size size) {
+    return (float) Math.max(size.width, size.height) / Math.max(1, Math.min(size.width, size.height));
+  }
+
+  private static long pixels(Size size) {
+    return (long) size.width * size.height;
+  }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.camera;
+
+import android.graphics.Bitmap;
+
+import com.google.zxing.LuminanceSource;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Like {@link PlanarYUVLuminanceSource}, but presents the camera frame rotated 90 degrees
+ * clockwise, which is how it appears on a portrait screen. Nothing is rotated up front: row and
+ * matrix requests are mapped back into the landscape Y plane, and only for the crop rectangle,
+ * so pixels outside the framing rect are never touched.
+ *
+ * The crop rectangle is given in rotated (portrait) coordinates. A rotated pixel (x, y) comes
+ * from the landscape pixel (y, dataHeight - 1 - x).
+ */
+public final class RotatedPlanarYUVLuminanceSource extends LuminanceSource {
+
+  // Tile edge for the blocked transpose in getMatrix(). 32 x 32 bytes of source rows plus the
+  // matching destination rows stay well inside L1 on the phones we care about.
+  private static final int BLOCK = 32;
+
+  private final byte[] yuvData;
+  private final int dataWidth;
+  private final int dataHeight;
+  private final int left;
+  private final int top;
+
+  /**
+   * @param yuvData    The landscape frame as delivered by the camera.
+   * @param dataWidth  Width of the landscape frame.
+   * @param dataHeight Height of the landscape frame.
+   * @param left       Crop left in rotated coordinates.
+   * @param top        Crop top in rotated coordinates.
+   * @param width      Crop width in rotated coordinates.
+   * @param height     Crop height in rotated coordinates.
+   */
+  public RotatedPlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int left,
+      int top, int width, int height) {
+    super(width, height);
+
+    // The rotated image is dataHeight wide and dataWidth tall.
+    if (left < 0 || top < 0 || left + width > dataHeight || top + height > dataWidth) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
+
+    this.yuvData = yuvData;
+    this.dataWidth = dataWidth;
+    this.dataHeight = dataHeight;
+    this.left = left;
+    this.top = top;
+  }
+
+  @Override
+  public byte[] getRow(int y, byte[] row) {
+    if (y < 0 || y >= getHeight()) {
+      throw new IllegalArgumentException("Requested row is outside the image: " + y);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width) {
+      row = new byte[width];
+    }
+    // A rotated row is a landscape column, walked bottom to top.
+    byte[] yuv = yuvData;
+    int stride = dataWidth;
+    int inputOffset = (dataHeight - 1 - left) * stride + top + y;
+    for (int x = 0; x < width; x++) {
+      row[x] = yuv[inputOffset];
+      inputOffset -= stride;
+    }
+    return row;
+  }
+
+  @Override
+  public byte[] getMatrix() {
+    return getMatrix(null);
+  }
+
+  /**
+   * Same as {@link #getMatrix()} but fills {@code matrix} when it is large enough, so callers
+   * decoding many frames can avoid allocating.
+   */
+  public byte[] getMatrix(byte[] matrix) {
+    int width = getWidth();
+    int height = getHeight();
+    if (matrix == null || matrix.length < width * height) {
+      matrix = new byte[width * height];
+    }
+    byte[] yuv = yuvData;
+    int stride = dataWidth;
+    // Blocked transpose: read a tile of landscape rows sequentially, write it as a tile of
+    // columns, so neither side strides through more memory than fits in cache.
+    for (int xBlock = 0; xBlock < width; xBlock += BLOCK) {
+      int xEnd = Math.min(xBlock + BLOCK, width);
+      for (int yBlock = 0; yBlock < height; yBlock += BLOCK) {
+        int yEnd = Math.min(yBlock + BLOCK, height);
+        for (int x = xBlock; x < xEnd; x++) {
+          int inputOffset = (dataHeight - 1 - left - x) * stride + top;
+          for (int y = yBlock; y < yEnd; y++) {
+            matrix[y * width + x] = yuv[inputOffset + y];
+          }
+        }
+      }
+    }
+    return matrix;
+  }
+
+  @Override
+  public boolean isCropSupported() {
+    return true;
+  }
+
+  @Override
+  public LuminanceSource crop(int left, int top, int width, int height) {
+    return new RotatedPlanarYUVLuminanceSource(yuvData, dataWidth, dataHeight, this.left + left,
+        this.top + top, width, height);
+  }
+
+  public int getDataWidth() {
+    return dataWidth;
+  }
+
+  public int getDataHeight() {
+    return dataHeight;
+  }
+
+  /**
+   * Renders the crop rectangle as an RGB_565 greyscale bitmap; see
+   * {@link #renderCroppedGreyscaleBitmap(Bitmap.Config)}.
+   */
+  public Bitmap renderCroppedGreyscaleBitmap() {
+    return renderCroppedGreyscaleBitmap(Bitmap.Config.RGB_565);
+  }
+
+  /**
+   * Renders the crop rectangle straight from the Y plane, without an ARGB pixel array.
+   *
+   * @param config {@link Bitmap.Config#ALPHA_8}, one byte per pixel holding the luminance as
+   *               alpha (draw it with an opaque paint over a contrasting background), or
+   *               {@link Bitmap.Config#RGB_565}, two bytes per pixel, for any other value.
+   */
+  public Bitmap renderCroppedGreyscaleBitmap(Bitmap.Config config) {
+    int width = getWidth();
+    int height = getHeight();
+    if (config == Bitmap.Config.ALPHA_8) {
+      Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+      bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(getMatrix()));
+      return bitmap;
+    }
+    short[] pixels = new short[width * height];
+    byte[] yuv = yuvData;
+    for (int x = 0; x < width; x++) {
+      int inputOffset = (dataHeight - 1 - left - x) * dataWidth + top;
+      for (int y = 0; y < height; y++) {
+        int grey = yuv[inputOffset + y] & 0xff;
+        pixels[y * width + x] = (short) (((grey >> 3) << 11) | ((grey >> 2) << 5) | (grey >> 3));
+      }
+    }
+    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+    bitmap.copyPixelsFromBuffer(ShortBuffer.wrap(pixels));
+    return bitmap;
+  }
+}
@@ -54,8 +54,13 @@ public final class CaptureActivityHandler extends Handler {
 
   public CaptureActivityHandler(CaptureActivity activity, Vector<BarcodeFormat> decodeFormats,
                                 String characterSet) {
+    this(activity, new ScanProfile(decodeFormats, characterSet,
+        ScanProfile.DEFAULT_TRY_HARDER_AFTER));
+  }
+
+  public CaptureActivityHandler(CaptureActivity activity, ScanProfile profile) {
     this.activity = activity;
-    decodeThread = new DecodeThread(activity, decodeFormats, characterSet,
+    decodeThread = new DecodeThread(activity, profile,
         new ViewfinderResultPointCallback(activity.getViewfinderView()));
     decodeThread.start();
     state = State.SUCCESS;
@@ -67,12 +72,11 @@ public final class CaptureActivityHandler extends Handler {
   @Override
   public void handleMessage(Message message) {
     switch (message.what) {
-      case R.id.auto_focus:
-        //Log.d(TAG, "Got auto-focus message");
-        // When one auto focus pass finishes, start another. This is the closest thing to
-        // continuous AF. It does seem to hunt a bit, but I'm not sure what else to do.
+      case R.id.refocus:
+        // The decode thread saw blurred frames. There is no autofocus loop any more: the camera
+        // focuses continuously where it can, and otherwise only when asked here.
         if (state == State.PREVIEW) {
-          CameraManager.get().requestAutoFocus(this, R.id.auto_focus);
+          CameraManager.get().requestFocus();
         }
         break;
       case R.id.restart_preview:
@@ -93,7 +97,10 @@ public final class CaptureActivityHandler extends Handler {
         break;
       case R.id.decode_failed:
         // We're decoding as fast as possible, so when one decode fails, start another.
-        state = State.PREVIEW;
+        if (state != State.PREVIEW) {
+          // A late failure from a worker racing the frame that already succeeded.
+          break;
+        }
         CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
         break;
       case R.id.return_scan_result:
@@ -130,8 +137,8 @@ public final class CaptureActivityHandler extends Handler {
   private void restartPreviewAndDecode() {
     if (state == State.SUCCESS) {
       state = State.PREVIEW;
+      decodeThread.startRound();
       CameraManager.get().requestPreviewFrame(decodeThread.getHandler(), R.id.decode);
-      CameraManager.get().requestAutoFocus(this, R.id.auto_focus);
       activity.drawViewfinder();
     }
   }
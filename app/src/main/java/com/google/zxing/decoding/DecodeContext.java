@@ -0,0 +1,117 @@
+package com.google.zxing.decoding;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.camera.RotatedPlanarYUVLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.Hashtable;
+
+/**
+ * Everything one decode worker needs to decode a frame, kept from one frame to the next: the
+ * fast and TRY_HARDER readers, and the buffers of {@link PooledHybridBinarizer}. Once the first
+ * frame has sized the buffers, decoding further frames of the same size allocates almost nothing
+ * until a code is found. Not thread safe; each worker owns one.
+ */
+final class DecodeContext {
+
+  private final MultiFormatReader reader;
+  private final MultiFormatReader tryHarderReader;
+  private byte[] luminances;
+  private int[] blackPoints;
+  private BitMatrix matrix;
+  // Stage timings of the last bitmap binarized with this context.
+  private long rotateNanos;
+  private long binarizeNanos;
+
+  DecodeContext(Hashtable<DecodeHintType, Object> hints,
+      Hashtable<DecodeHintType, Object> tryHarderHints) {
+    reader = new MultiFormatReader();
+    reader.setHints(hints);
+    tryHarderReader = new MultiFormatReader();
+    tryHarderReader.setHints(tryHarderHints);
+  }
+
+  /**
+   * Wraps {@code source} for decoding with this context's buffers. The bitmap is only valid until
+   * the next call.
+   */
+  BinaryBitmap bitmap(LuminanceSource source) {
+    rotateNanos = 0;
+    binarizeNanos = 0;
+    return new BinaryBitmap(new PooledHybridBinarizer(source, this));
+  }
+
+  /**
+   * Runs the fast pass over {@code bitmap}; returns null if nothing was found.
+   */
+  Result decode(BinaryBitmap bitmap) {
+    return decode(reader, bitmap);
+  }
+
+  /**
+   * Runs the TRY_HARDER pass over {@code bitmap}; returns null if nothing was found.
+   */
+  Result decodeHarder(BinaryBitmap bitmap) {
+    return decode(tryHarderReader, bitmap);
+  }
+
+  private static Result decode(MultiFormatReader multiFormatReader, BinaryBitmap bitmap) {
+    try {
+      return multiFormatReader.decodeWithState(bitmap);
+    } catch (ReaderException re) {
+      return null;
+    } finally {
+      multiFormatReader.reset();
+    }
+  }
+
+  /**
+   * Time the last bitmap spent copying its luminance out of the frame, through the rotation.
+   */
+  long getRotateNanos() {
+    return rotateNanos;
+  }
+
+  /**
+   * Time the last bitmap spent thresholding, not counting {@link #getRotateNanos}.
+   */
+  long getBinarizeNanos() {
+    return binarizeNanos;
+  }
+
+  void binarized(long rotateNanos, long binarizeNanos) {
+    this.rotateNanos = rotateNanos;
+    this.binarizeNanos = binarizeNanos;
+  }
+
+  byte[] luminances(LuminanceSource source) {
+    if (source instanceof RotatedPlanarYUVLuminanceSource) {
+      luminances = ((RotatedPlanarYUVLuminanceSource) source).getMatrix(luminances);
+      return luminances;
+    }
+    // Other sources may hand out their own array; it is not kept.
+    return source.getMatrix();
+  }
+
+  int[] blackPoints(int size) {
+    if (blackPoints == null || blackPoints.length < size) {
+      blackPoints = new int[size];
+    }
+    return blackPoints;
+  }
+
+  BitMatrix matrix(int width, int height) {
+    if (matrix == null || matrix.getWidth() != width || matrix.getHeight() != height) {
+      matrix = new BitMatrix(width, height);
+    } else {
+      matrix.clear();
+    }
+    return matrix;
+  }
+
+}
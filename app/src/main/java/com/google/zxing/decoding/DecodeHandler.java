@@ -16,37 +16,107 @@
 
 package com.google.zxing.decoding;
 
+import android.graphics.Rect;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.vone.qrcode.R;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
 import com.google.zxing.activity.CaptureActivity;
 import com.google.zxing.camera.CameraManager;
-import com.google.zxing.camera.PlanarYUVLuminanceSource;
-import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.camera.RotatedPlanarYUVLuminanceSource;
 
 import java.util.Hashtable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
+/**
+ * Runs on the decode thread and farms preview frames out to a small pool of decode workers, so
+ * consecutive frames are decoded in parallel instead of one per decode time. The first worker to
+ * find a barcode publishes it; frames still being decoded in that round are discarded, and frames
+ * that arrive afterwards go straight back to the camera. Frames taken while the phone is moving
+ * or the lens is out of focus are turned away by a {@link FrameQualityGate} before they reach a
+ * worker. For dim scenes the profile can ask for a {@link FrameAccumulator}: once single frames
+ * keep missing, every few frames the averaged framing rect is decoded in place of the frame.
+ */
 final class DecodeHandler extends Handler {
 
   private static final String TAG = DecodeHandler.class.getSimpleName();
 
+  // Leave a core for the UI and camera threads; beyond three workers frames arrive too slowly
+  // to keep them busy anyway.
+  static final int WORKER_COUNT =
+      Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 3));
+
   private final CaptureActivity activity;
-  private final MultiFormatReader multiFormatReader;
+  private final ScanProfile profile;
+  private final ExecutorService workers;
+  // Each worker keeps its own readers and binarizer buffers; none of them are thread safe.
+  private final ThreadLocal<DecodeContext> contexts;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  // Consecutive misses in the current round, for the TRY_HARDER fallback.
+  private final AtomicInteger misses = new AtomicInteger();
+  // A round starts each time the capture handler restarts decoding; at most one result is
+  // published per round.
+  private final AtomicInteger round = new AtomicInteger();
+  private final AtomicInteger publishedRound = new AtomicInteger(-1);
+  // Decode thread only.
+  private final FrameQualityGate gate = new FrameQualityGate();
+  private int gateRound = -1;
+  // Null unless the profile averages frames.
+  private final FrameAccumulator accumulator;
+  private byte[] composite;
+  // Set while a worker decodes the composite, which must not be rewritten until it is done.
+  private final AtomicBoolean compositeBusy = new AtomicBoolean();
+  private final ScanTelemetry telemetry;
 
-  DecodeHandler(CaptureActivity activity, Hashtable<DecodeHintType, Object> hints) {
-    multiFormatReader = new MultiFormatReader();
-    multiFormatReader.setHints(hints);
+  DecodeHandler(CaptureActivity activity, ScanProfile profile,
+                Hashtable<DecodeHintType, Object> hints,
+                Hashtable<DecodeHintType, Object> tryHarderHints) {
     this.activity = activity;
+    this.profile = profile;
+    telemetry = activity.getTelemetry();
+    contexts = newContexts(hints, tryHarderHints);
+    accumulator = profile.getAverageFrames() > 1
+        ? new FrameAccumulator(profile.getAverageFrames()) : null;
+    workers = Executors.newFixedThreadPool(WORKER_COUNT, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "DecodeWorker-" + count.incrementAndGet());
+      }
+    });
+  }
+
+  private static ThreadLocal<DecodeContext> newContexts(
+      final Hashtable<DecodeHintType, Object> hints,
+      final Hashtable<DecodeHintType, Object> tryHarderHints) {
+    return new ThreadLocal<DecodeContext>() {
+      @Override
+      protected DecodeContext initialValue() {
+        return new DecodeContext(hints, tryHarderHints);
+      }
+    };
+  }
+
+  /**
+   * Starts a new round of decoding. Results from frames of earlier rounds are dropped.
+   */
+  void startRound() {
+    misses.set(0);
+    round.incrementAndGet();
   }
 
   @Override
@@ -54,59 +124,177 @@ final class DecodeHandler extends Handler {
     switch (message.what) {
       case R.id.decode:
         //Log.d(TAG, "Got decode message");
-        decode((byte[]) message.obj, message.arg1, message.arg2);
+        dispatch((byte[]) message.obj, message.arg1, message.arg2);
         break;
       case R.id.quit:
+        workers.shutdownNow();
+        try {
+          workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // continue
+        }
         Looper.myLooper().quit();
         break;
     }
   }
 
+  private void dispatch(final byte[] data, final int width, final int height) {
+    telemetry.frameReceived(System.nanoTime());
+    final int frameRound = round.get();
+    if (publishedRound.get() == frameRound || inFlight.get() >= WORKER_COUNT) {
+      CameraManager.get().releasePreviewFrame(data);
+      return;
+    }
+    if (gateRound != frameRound) {
+      gate.reset();
+      if (accumulator != null) {
+        accumulator.reset();
+      }
+      gateRound = frameRound;
+    }
+    Rect rect = CameraManager.get().getFramingRectInFrame(width, height);
+    int verdict = gate.check(data, width, height, rect.left, rect.top, rect.width(),
+        rect.height());
+    if (verdict != FrameQualityGate.DECODE) {
+      telemetry.frameSkipped(verdict);
+      if (verdict == FrameQualityGate.MOVING && accumulator != null) {
+        // Averaging across a move would only smear the code.
+        accumulator.reset();
+      }
+      CameraManager.get().releasePreviewFrame(data);
+      if (verdict == FrameQualityGate.BLURRED && gate.shouldRefocus(SystemClock.uptimeMillis())) {
+        Message.obtain(activity.getHandler(), R.id.refocus).sendToTarget();
+      }
+      CameraManager.get().requestPreviewFrame(this, R.id.decode);
+      return;
+    }
+    inFlight.incrementAndGet();
+    if (accumulator != null && accumulate(data, width, height, rect)) {
+      final RotatedPlanarYUVLuminanceSource source = accumulator.buildLuminanceSource(composite);
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (frameRound == round.get() && publishedRound.get() != frameRound) {
+              decode(source, frameRound, true);
+            }
+          } finally {
+            compositeBusy.set(false);
+            inFlight.decrementAndGet();
+          }
+        }
+      });
+    } else {
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            decode(data, width, height, frameRound);
+          } finally {
+            inFlight.decrementAndGet();
+          }
+        }
+      });
+    }
+    // Keep the other workers fed while this frame decodes.
+    if (inFlight.get() < WORKER_COUNT) {
+      CameraManager.get().requestPreviewFrame(this, R.id.decode);
+    }
+  }
+
   /**
-   * Decode the data within the viewfinder rectangle, and time how long it took. For efficiency,
-   * reuse the same reader objects from one decode to the next.
+   * Adds a frame to the average and, when a composite is due and single frames have been missing
+   * for a while, writes it to {@link #composite} and releases the frame. The caller then decodes
+   * the composite instead of the frame, so the workers do no more decodes than without averaging.
    *
-   * @param data   The YUV preview frame.
-   * @param width  The width of the preview frame.
-   * @param height The height of the preview frame.
+   * @return Whether the composite should be decoded instead of the frame.
    */
-  private void decode(byte[] data, int width, int height) {
-    long start = System.currentTimeMillis();
-    Result rawResult = null;
-    
-    //modify here
-    byte[] rotatedData = new byte[data.length];
-    for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++)
-            rotatedData[x * height + height - y - 1] = data[x + y * width];
+  private boolean accumulate(byte[] data, int width, int height, Rect rect) {
+    accumulator.add(data, width, height, rect.left, rect.top, rect.width(), rect.height());
+    // In good light the frames decode on their own and the composite would only cost a decode.
+    if (!accumulator.isDue() || misses.get() < accumulator.getFrames()
+        || !compositeBusy.compareAndSet(false, true)) {
+      return false;
     }
-    int tmp = width; // Here we are swapping, that's the difference to #11
-    width = height;
-    height = tmp;
-    
-    PlanarYUVLuminanceSource source = CameraManager.get().buildLuminanceSource(rotatedData, width, height);
-    BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-    try {
-      rawResult = multiFormatReader.decodeWithState(bitmap);
-    } catch (ReaderException re) {
-      // continue
-    } finally {
-      multiFormatReader.reset();
+    composite = accumulator.composite(composite);
+    CameraManager.get().releasePreviewFrame(data);
+    return true;
+  }
+
+  /**
+   * Decode the data within the viewfinder rectangle of a preview frame, then hand the frame back
+   * to the camera.
+   *
+   * @param data       The YUV preview frame.
+   * @param width      The width of the preview frame.
+   * @param height     The height of the preview frame.
+   * @param frameRound The round the frame was dispatched in.
+   */
+  private void decode(byte[] data, int width, int height, int frameRound) {
+    if (frameRound != round.get() || publishedRound.get() == frameRound) {
+      // Another worker already won this round.
+      CameraManager.get().releasePreviewFrame(data);
+      return;
     }
+    // Only the framing rect is read, through the rotation, straight from the camera buffer.
+    decode(CameraManager.get().buildRotatedLuminanceSource(data, width, height), frameRound,
+        false);
+    // The source reads the frame lazily, so it can only go back to the camera now.
+    CameraManager.get().releasePreviewFrame(data);
+  }
+
+  /**
+   * Decode {@code source}, and time how long it took and each of its stages. For efficiency,
+   * reuse the same reader objects and binarizer buffers from one decode to the next.
+   */
+  private void decode(RotatedPlanarYUVLuminanceSource source, int frameRound, boolean composite) {
+    long start = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
+    DecodeContext context = contexts.get();
+    BinaryBitmap bitmap = context.bitmap(source);
+    Result rawResult = context.decode(bitmap);
+    // The fast pass alone is what the preview size should be tuned for.
+    CameraManager.get().reportDecodeTime(System.currentTimeMillis() - start);
+    if (rawResult == null && profile.shouldTryHarder(misses.incrementAndGet())) {
+      // Only the occasional frame gets the slow pass, so a code that is simply not in view yet
+      // does not halve the frame rate.
+      rawResult = context.decodeHarder(bitmap);
+    }
+    long decodeNanos = System.nanoTime() - startNanos;
+    telemetry.frameDecoded(composite, context.getRotateNanos(), context.getBinarizeNanos(),
+        decodeNanos - context.getRotateNanos() - context.getBinarizeNanos(), decodeNanos);
 
     if (rawResult != null) {
-      long end = System.currentTimeMillis();
-      Log.d(TAG, "Found barcode (" + (end - start) + " ms):\n" + rawResult.toString());
-      Message message = Message.obtain(activity.getHandler(), R.id.decode_succeeded, rawResult);
-      Bundle bundle = new Bundle();
-      bundle.putParcelable(DecodeThread.BARCODE_BITMAP, source.renderCroppedGreyscaleBitmap());
-      message.setData(bundle);
-      //Log.d(TAG, "Sending decode succeeded message...");
-      message.sendToTarget();
-    } else {
+      if (claim(frameRound)) {
+        telemetry.resultFound(System.nanoTime());
+        long end = System.currentTimeMillis();
+        Log.d(TAG, "Found barcode (" + (end - start) + " ms):\n" + rawResult.toString());
+        Message message = Message.obtain(activity.getHandler(), R.id.decode_succeeded, rawResult);
+        if (profile.isBarcodeBitmapWanted()) {
+          // Only callers that show the scanned image pay for rendering and parceling it.
+          Bundle bundle = new Bundle();
+          bundle.putParcelable(DecodeThread.BARCODE_BITMAP, source.renderCroppedGreyscaleBitmap());
+          message.setData(bundle);
+        }
+        //Log.d(TAG, "Sending decode succeeded message...");
+        message.sendToTarget();
+      }
+    } else if (frameRound == round.get() && publishedRound.get() != frameRound) {
       Message message = Message.obtain(activity.getHandler(), R.id.decode_failed);
       message.sendToTarget();
     }
   }
 
+  private boolean claim(int frameRound) {
+    while (true) {
+      int published = publishedRound.get();
+      if (published >= frameRound || frameRound != round.get()) {
+        return false;
+      }
+      if (publishedRound.compareAndSet(published, frameRound)) {
+        return true;
+      }
+    }
+  }
+
 }
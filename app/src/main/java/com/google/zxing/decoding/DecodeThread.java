@@ -19,13 +19,11 @@ package com.google.zxing.decoding;
 import android.os.Handler;
 import android.os.Looper;
 
-import com.google.zxing.BarcodeFormat;
 import com.google.zxing.DecodeHintType;
 import com.google.zxing.ResultPointCallback;
 import com.google.zxing.activity.CaptureActivity;
 
 import java.util.Hashtable;
-import java.util.Vector;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -37,33 +35,21 @@ final class DecodeThread extends Thread {
   public static final String BARCODE_BITMAP = "barcode_bitmap";
   private final CaptureActivity activity;
   private final Hashtable<DecodeHintType, Object> hints;
-  private Handler handler;
+  private final Hashtable<DecodeHintType, Object> tryHarderHints;
+  private final ScanProfile profile;
+  private DecodeHandler handler;
   private final CountDownLatch handlerInitLatch;
 
   DecodeThread(CaptureActivity activity,
-               Vector<BarcodeFormat> decodeFormats,
-               String characterSet,
+               ScanProfile profile,
                ResultPointCallback resultPointCallback) {
 
     this.activity = activity;
     handlerInitLatch = new CountDownLatch(1);
 
-    hints = new Hashtable<DecodeHintType, Object>(3);
-
-    if (decodeFormats == null || decodeFormats.isEmpty()) {
-    	 decodeFormats = new Vector<BarcodeFormat>();
-    	 decodeFormats.addAll(DecodeFormatManager.ONE_D_FORMATS);
-    	 decodeFormats.addAll(DecodeFormatManager.QR_CODE_FORMATS);
-    	 decodeFormats.addAll(DecodeFormatManager.DATA_MATRIX_FORMATS);
-    }
-    
-    hints.put(DecodeHintType.POSSIBLE_FORMATS, decodeFormats);
-
-    if (characterSet != null) {
-      hints.put(DecodeHintType.CHARACTER_SET, characterSet);
-    }
-
-    hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, resultPointCallback);
+    hints = profile.buildHints(resultPointCallback);
+    tryHarderHints = profile.buildTryHarderHints(resultPointCallback);
+    this.profile = profile;
   }
 
   Handler getHandler() {
@@ -75,10 +61,22 @@ final class DecodeThread extends Thread {
     return handler;
   }
 
+  /**
+   * Starts a new decode round; see {@link DecodeHandler#startRound()}.
+   */
+  void startRound() {
+    try {
+      handlerInitLatch.await();
+    } catch (InterruptedException ie) {
+      // continue?
+    }
+    handler.startRound();
+  }
+
   @Override
   public void run() {
     Looper.prepare();
-    handler = new DecodeHandler(activity, hints);
+    handler = new DecodeHandler(activity, profile, hints, tryHarderHints);
     handlerInitLatch.countDown();
     Looper.loop();
   }
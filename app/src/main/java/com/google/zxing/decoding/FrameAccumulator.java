@@ -0,0 +1,133 @@
+package com.google.zxing.decoding;
+
+import com.google.zxing.camera.RotatedPlanarYUVLuminanceSource;
+
+/**
+ * Averages the framing rect of consecutive preview frames, for codes shown in dim light. There
+ * the camera raises the gain until the sensor noise breaks up the modules and no single frame
+ * binarizes cleanly, while the code itself stays put; averaging a few frames keeps the code and
+ * cancels most of the noise.
+ *
+ * Frames are summed into one int buffer the size of the framing rect, so adding a frame is a
+ * single sequential pass over its rows and the frames themselves never need to be kept; every
+ * {@code frames} frames the sum is due, written out as their average, and the next frame starts
+ * a new sum. The buffer is in landscape order, the same as the frame, and {@link #composite}
+ * writes it out as a small landscape frame that the usual {@link RotatedPlanarYUVLuminanceSource}
+ * crops and rotates like a camera frame. Not thread safe: used from the decode thread only.
+ */
+final class FrameAccumulator {
+
+  private final int shift;
+  private final int frames;
+  private int[] sum;
+  // Size of the accumulated region in landscape pixels.
+  private int dataWidth;
+  private int dataHeight;
+  private int count;
+
+  /**
+   * @param frames How many frames the average spans; rounded down to a power of two, at least 2.
+   */
+  FrameAccumulator(int frames) {
+    shift = Math.max(1, 31 - Integer.numberOfLeadingZeros(frames));
+    this.frames = 1 << shift;
+  }
+
+  /**
+   * Drops the frames of the current window, e.g. when the phone moved or decoding restarts.
+   */
+  void reset() {
+    count = 0;
+  }
+
+  /**
+   * Adds the framing rect of a landscape frame. The rect is given in the rotated, portrait
+   * coordinates of {@link RotatedPlanarYUVLuminanceSource}; a rect of a different size than the
+   * frames before starts a new window.
+   */
+  void add(byte[] data, int dataWidth, int dataHeight, int left, int top, int width, int height) {
+    // Back to landscape: rotated (rx, ry) is landscape (ry, dataHeight - 1 - rx).
+    int startX = top;
+    int startY = dataHeight - left - width;
+    if (height != this.dataWidth || width != this.dataHeight) {
+      this.dataWidth = height;
+      this.dataHeight = width;
+      count = 0;
+    }
+    int size = height * width;
+    if (sum == null || sum.length < size) {
+      sum = new int[size];
+      count = 0;
+    }
+
+    int[] sum = this.sum;
+    int index = 0;
+    if ((count & (frames - 1)) == 0) {
+      // The first frame of a window overwrites the previous sum.
+      for (int y = 0; y < width; y++) {
+        int offset = (startY + y) * dataWidth + startX;
+        for (int x = 0; x < height; x++) {
+          sum[index++] = data[offset + x] & 0xff;
+        }
+      }
+    } else {
+      for (int y = 0; y < width; y++) {
+        int offset = (startY + y) * dataWidth + startX;
+        for (int x = 0; x < height; x++) {
+          sum[index++] += data[offset + x] & 0xff;
+        }
+      }
+    }
+    count++;
+  }
+
+  /**
+   * Whether the last frame completed a window, so that {@link #composite} is the average of
+   * {@link #getFrames} frames none of which went into an earlier composite.
+   */
+  boolean isDue() {
+    return count > 0 && (count & (frames - 1)) == 0;
+  }
+
+  /**
+   * How many frames the average spans.
+   */
+  int getFrames() {
+    return frames;
+  }
+
+  /**
+   * Writes the average of the window into {@code out} as a landscape frame of {@link
+   * #getDataWidth} by {@link #getDataHeight}, reusing {@code out} when it is large enough. Only
+   * meaningful while {@link #isDue}.
+   */
+  byte[] composite(byte[] out) {
+    int size = dataWidth * dataHeight;
+    if (out == null || out.length < size) {
+      out = new byte[size];
+    }
+    int[] sum = this.sum;
+    int round = frames >> 1;
+    for (int i = 0; i < size; i++) {
+      out[i] = (byte) ((sum[i] + round) >> shift);
+    }
+    return out;
+  }
+
+  /**
+   * Wraps a composite from {@link #composite} as the rotated framing rect it was taken from.
+   */
+  RotatedPlanarYUVLuminanceSource buildLuminanceSource(byte[] composite) {
+    return new RotatedPlanarYUVLuminanceSource(composite, dataWidth, dataHeight, 0, 0, dataHeight,
+        dataWidth);
+  }
+
+  int getDataWidth() {
+    return dataWidth;
+  }
+
+  int getDataHeight() {
+    return dataHeight;
+  }
+
+}
@@ -0,0 +1,120 @@
+package com.google.zxing.decoding;
+
+/**
+ * A cheap look at a preview frame before it is decoded. A sparse grid of the framing rect's Y
+ * plane gives a sharpness figure (mean absolute Laplacian) and the change from the previous frame;
+ * frames taken while the phone is moving, or that are much softer than the recent frames because
+ * the lens is hunting, are not worth a full binarize and decode.
+ *
+ * Sampling costs about 1/16th of a pass over the framing rect. No more than
+ * {@link #MAX_CONSECUTIVE_SKIPS} frames are skipped in a row, so a code that is simply printed
+ * soft still gets decoded, only a little later. Not thread safe: used from the decode thread only.
+ */
+final class FrameQualityGate {
+
+  static final int DECODE = 0;
+  static final int MOVING = 1;
+  static final int BLURRED = 2;
+
+  static final int MAX_CONSECUTIVE_SKIPS = 3;
+
+  // Grid spacing, in pixels, of the sampled points.
+  private static final int STEP = 4;
+  // Mean absolute difference from the previous frame above which the phone is still moving.
+  private static final int MOTION_THRESHOLD = 12;
+  // Below this the framing rect is flat: a covered lens or a defocused blur.
+  private static final float MIN_SHARPNESS = 1.5f;
+  // A frame this much softer than the recent peak is taken while focus is hunting.
+  private static final float SHARPNESS_DROP = 0.5f;
+  // How fast the recent peak forgets a sharp frame, per frame.
+  private static final float PEAK_DECAY = 0.95f;
+  private static final long REFOCUS_INTERVAL_MS = 2000L;
+
+  private byte[] previous;
+  private int previousCount;
+  private float peakSharpness;
+  private int skipped;
+  private long lastRefocus;
+
+  /**
+   * Forgets the previous frames, e.g. when decoding restarts after a result.
+   */
+  void reset() {
+    previousCount = 0;
+    peakSharpness = 0.0f;
+    skipped = 0;
+  }
+
+  /**
+   * Looks at the framing rect of a landscape frame. The rect is given in the rotated, portrait
+   * coordinates of {@link com.google.zxing.camera.RotatedPlanarYUVLuminanceSource}.
+   *
+   * @return {@link #DECODE}, or why the frame should be skipped.
+   */
+  int check(byte[] data, int dataWidth, int dataHeight, int left, int top, int width,
+      int height) {
+    // Back to landscape: rotated (rx, ry) is landscape (ry, dataHeight - 1 - rx). The outermost
+    // row and column are left out so every sample has all four neighbours.
+    int startX = Math.max(1, top);
+    int endX = Math.min(dataWidth - 1, top + height);
+    int startY = Math.max(1, dataHeight - left - width);
+    int endY = Math.min(dataHeight - 1, dataHeight - left);
+    int columns = (endX - startX + STEP - 1) / STEP;
+    int rows = (endY - startY + STEP - 1) / STEP;
+    int count = columns * rows;
+    if (count <= 0) {
+      return DECODE;
+    }
+    if (previous == null || previous.length < count) {
+      previous = new byte[count];
+      previousCount = 0;
+    }
+    boolean compare = previousCount == count;
+
+    long laplacian = 0;
+    long difference = 0;
+    int index = 0;
+    for (int y = startY; y < endY; y += STEP) {
+      int offset = y * dataWidth;
+      for (int x = startX; x < endX; x += STEP) {
+        int center = data[offset + x] & 0xff;
+        int sum = (data[offset + x - 1] & 0xff) + (data[offset + x + 1] & 0xff)
+            + (data[offset + x - dataWidth] & 0xff) + (data[offset + x + dataWidth] & 0xff);
+        laplacian += Math.abs(4 * center - sum);
+        if (compare) {
+          difference += Math.abs(center - (previous[index] & 0xff));
+        }
+        previous[index++] = (byte) center;
+      }
+    }
+    previousCount = count;
+
+    float sharpness = (float) laplacian / count;
+    peakSharpness = Math.max(sharpness, peakSharpness * PEAK_DECAY);
+    int verdict = DECODE;
+    if (compare && difference / count > MOTION_THRESHOLD) {
+      verdict = MOVING;
+    } else if (sharpness < MIN_SHARPNESS || sharpness < peakSharpness * SHARPNESS_DROP) {
+      verdict = BLURRED;
+    }
+    if (verdict == DECODE || skipped >= MAX_CONSECUTIVE_SKIPS) {
+      skipped = 0;
+      return DECODE;
+    }
+    skipped++;
+    return verdict;
+  }
+
+  /**
+   * Whether a blurred frame should trigger a focus pass now; at most one every couple of seconds,
+   * so a soft code does not keep the lens hunting.
+   */
+  boolean shouldRefocus(long now) {
+    if (now - lastRefocus < REFOCUS_INTERVAL_MS) {
+      return false;
+    }
+    lastRefocus = now;
+    return true;
+  }
+
+}
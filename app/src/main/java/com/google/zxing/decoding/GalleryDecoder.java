@@ -0,0 +1,246 @@
+package com.google.zxing.decoding;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.vone.vmq.util.BitmapUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decodes a QR code from a picture picked from the gallery, on a background thread.
+ *
+ * Most screenshots decode from a small downsample, so that is tried first; larger scales, then
+ * tiles of the original picture decoded with BitmapRegionDecoder, are only tried when the smaller
+ * attempts fail. A decode can be cancelled at any point between attempts, e.g. when the activity
+ * goes away.
+ */
+public final class GalleryDecoder {
+
+  private static final String TAG = GalleryDecoder.class.getSimpleName();
+
+  // Longest edge of each attempt, smallest first.
+  private static final int[] MAX_SIZES = {500, 1000, 2000};
+  // Longest edge of a decoded tile.
+  private static final int MAX_TILE_SIZE = 1000;
+  // Tiles of a roughly square picture, as {left, top, right, bottom} fractions: the centre, then
+  // the four quadrants. Long screenshots are cut into overlapping squares instead.
+  private static final float[][] REGIONS = {
+      {0.25f, 0.25f, 0.75f, 0.75f},
+      {0.0f, 0.0f, 0.5f, 0.5f},
+      {0.5f, 0.0f, 1.0f, 0.5f},
+      {0.0f, 0.5f, 0.5f, 1.0f},
+      {0.5f, 0.5f, 1.0f, 1.0f},
+  };
+
+  public interface Callback {
+    /**
+     * Called on the main thread, unless the decode was cancelled.
+     *
+     * @param result The decoded QR code, or null if none was found.
+     */
+    void onDecoded(Result result);
+  }
+
+  private final Context context;
+  private final Hashtable<DecodeHintType, Object> hints;
+  private final ExecutorService executor;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // Worker thread only: pixels of each attempt are copied through this buffer.
+  private ByteBuffer scratch;
+  // Main thread only: bumped by cancel() so a result that is already posted is still dropped.
+  private int generation;
+  private Future<?> pending;
+  private boolean shutdown;
+
+  public GalleryDecoder(Context context) {
+    this.context = context.getApplicationContext();
+    hints = new Hashtable<DecodeHintType, Object>(2);
+    hints.put(DecodeHintType.CHARACTER_SET, "UTF8");
+    executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "GalleryDecoder");
+      }
+    });
+  }
+
+  /**
+   * Starts decoding {@code uri}, cancelling any decode still running.
+   */
+  public void decode(final Uri uri, final Callback callback) {
+    cancel();
+    if (shutdown) {
+      return;
+    }
+    final int token = generation;
+    pending = executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        final Result result = decode(uri);
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (!shutdown && token == generation) {
+              callback.onDecoded(result);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Cancels the decode in progress, if any. Its callback will not be called. Main thread only.
+   */
+  public void cancel() {
+    generation++;
+    Future<?> future = pending;
+    if (future != null) {
+      future.cancel(true);
+      pending = null;
+    }
+  }
+
+  /**
+   * Cancels any decode and stops the worker thread. Call from the activity's onDestroy().
+   */
+  public void shutdown() {
+    shutdown = true;
+    cancel();
+    executor.shutdownNow();
+    BitmapUtil.clearPool();
+  }
+
+  /**
+   * Runs the progressive decode on the worker thread, which owns {@link #scratch}. Returns null
+   * when nothing was found or the thread was interrupted.
+   */
+  private Result decode(Uri uri) {
+    if (uri == null) {
+      return null;
+    }
+    QRCodeReader reader = new QRCodeReader();
+    Bitmap largest = null;
+    Result result = null;
+    for (int maxSize : MAX_SIZES) {
+      if (Thread.currentThread().isInterrupted()) {
+        break;
+      }
+      Bitmap bitmap = BitmapUtil.decodeUri(context, uri, maxSize, maxSize);
+      if (bitmap == null) {
+        break;
+      }
+      if (largest != null && bitmap.getWidth() <= largest.getWidth()) {
+        // The picture is smaller than this limit, so these are the pixels we already tried.
+        BitmapUtil.recycle(bitmap);
+        break;
+      }
+      if (largest != null) {
+        BitmapUtil.recycle(largest);
+      }
+      largest = bitmap;
+      result = decode(reader, bitmap);
+      if (result != null) {
+        break;
+      }
+    }
+    if (largest != null) {
+      // Pooled, so the next picture can decode into the same memory.
+      BitmapUtil.recycle(largest);
+    }
+    if (result != null || Thread.currentThread().isInterrupted()) {
+      return result;
+    }
+    return decodeTiles(reader, uri);
+  }
+
+  private Result decodeTiles(QRCodeReader reader, Uri uri) {
+    Point size = BitmapUtil.decodeSize(context, uri);
+    if (size == null) {
+      return null;
+    }
+    for (Rect tile : tiles(size.x, size.y)) {
+      if (Thread.currentThread().isInterrupted()) {
+        return null;
+      }
+      Bitmap bitmap = BitmapUtil.decodeRegion(context, uri, tile, MAX_TILE_SIZE, MAX_TILE_SIZE);
+      if (bitmap == null) {
+        continue;
+      }
+      try {
+        Result result = decode(reader, bitmap);
+        if (result != null) {
+          return result;
+        }
+      } finally {
+        bitmap.recycle();
+      }
+    }
+    return null;
+  }
+
+  private static List<Rect> tiles(int width, int height) {
+    List<Rect> tiles = new ArrayList<Rect>();
+    int shortSide = Math.min(width, height);
+    int longSide = Math.max(width, height);
+    if (longSide > shortSide * 3 / 2) {
+      // A long screenshot: squares of the short side along the long one, half overlapping so a
+      // code cut by one tile edge is whole in the next tile.
+      int step = shortSide / 2;
+      for (int offset = 0; ; offset += step) {
+        int start = Math.min(offset, longSide - shortSide);
+        if (width > height) {
+          tiles.add(new Rect(start, 0, start + shortSide, height));
+        } else {
+          tiles.add(new Rect(0, start, width, start + shortSide));
+        }
+        if (start + shortSide >= longSide) {
+          break;
+        }
+      }
+    } else {
+      for (float[] region : REGIONS) {
+        tiles.add(new Rect((int) (region[0] * width), (int) (region[1] * height),
+            (int) (region[2] * width), (int) (region[3] * height)));
+      }
+    }
+    return tiles;
+  }
+
+  private Result decode(QRCodeReader reader, Bitmap bitmap) {
+    scratch = RGBLuminanceSource.ensureBuffer(scratch, bitmap);
+    BinaryBitmap binaryBitmap =
+        new BinaryBitmap(new HybridBinarizer(new RGBLuminanceSource(bitmap, scratch)));
+    try {
+      return reader.decode(binaryBitmap, hints);
+    } catch (ReaderException re) {
+      return null;
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Unable to decode " + bitmap.getWidth() + "x" + bitmap.getHeight(), e);
+      return null;
+    } finally {
+      reader.reset();
+    }
+  }
+
+}
@@ -56,6 +56,36 @@ public final class Intents {
      */
     public static final String CHARACTER_SET = "CHARACTER_SET";
 
+    /**
+     * Number of consecutive missed frames after which a slower
+     * {@link com.google.zxing.DecodeHintType#TRY_HARDER} pass is made, repeated every that many
+     * misses. Use Intent.putExtra(TRY_HARDER_AFTER, int); 0 never tries harder. Optional.
+     */
+    public static final String TRY_HARDER_AFTER = "TRY_HARDER_AFTER";
+
+    /**
+     * Whether to render a greyscale image of the framing rect when a barcode is found and pass it
+     * to CaptureActivity.handleDecode(). Use Intent.putExtra(SAVE_BARCODE_BITMAP, boolean).
+     * Optional, defaults to false: most callers only need the text.
+     */
+    public static final String SAVE_BARCODE_BITMAP = "SAVE_BARCODE_BITMAP";
+
+    /**
+     * Number of consecutive frames to average when single frames keep failing to decode, for
+     * codes scanned in dim light where sensor noise breaks up the modules. Use
+     * Intent.putExtra(AVERAGE_FRAMES, int), a power of two up to 8. Optional, defaults to 0,
+     * which decodes frames one at a time only.
+     */
+    public static final String AVERAGE_FRAMES = "AVERAGE_FRAMES";
+
+    /**
+     * Whether to draw the scan's telemetry (camera open time, frame counts, decode stage timings)
+     * over the viewfinder, for tuning on a particular phone. Use
+     * Intent.putExtra(SHOW_TELEMETRY, boolean). Optional, defaults to false; the telemetry is
+     * recorded and exported either way.
+     */
+    public static final String SHOW_TELEMETRY = "SHOW_TELEMETRY";
+
     /**
      * Decode only UPC and EAN barcodes. This is the right choice for shopping apps which get
      * prices, reviews, etc. for products.
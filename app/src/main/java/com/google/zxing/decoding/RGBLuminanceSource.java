@@ -22,54 +22,152 @@ import android.graphics.BitmapFactory;
 import com.google.zxing.LuminanceSource;
 
 import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * This class is used to help decode images from files which arrive as RGB data
- * from Android bitmaps. It does not support cropping or rotation.
- * 
+ * from Android bitmaps. It supports cropping, but not rotation.
+ *
+ * The pixels are copied out with {@link Bitmap#copyPixelsToBuffer} into a direct buffer that the
+ * caller can keep and pass in again, and converted to luminance one row at a time, so the only
+ * per-image allocation is the luminance array itself. ARGB_8888, RGB_565 and ALPHA_8 bitmaps are
+ * read directly. An ALPHA_8 bitmap has no colour, only coverage, so it is read as if drawn on
+ * white: luminance is 255 - alpha. This is how {@link com.google.zxing.encoding.EncodingHandler}
+ * draws its ALPHA_8 codes, opaque dark modules on a transparent background, so they decode the
+ * right way round instead of inverted.
  */
 public final class RGBLuminanceSource extends LuminanceSource {
 
 	private final byte[] luminances;
+	private final int dataWidth;
+	private final int dataHeight;
+	private final int left;
+	private final int top;
 
 	public RGBLuminanceSource(String path) throws FileNotFoundException {
 		this(loadBitmap(path));
 	}
 
 	public RGBLuminanceSource(Bitmap bitmap) {
+		this(bitmap, null);
+	}
+
+	/**
+	 * @param bitmap  The image to decode.
+	 * @param scratch A direct buffer from {@link #ensureBuffer} to copy the pixels through, or
+	 *                null to allocate one for this image only.
+	 */
+	public RGBLuminanceSource(Bitmap bitmap, ByteBuffer scratch) {
 		super(bitmap.getWidth(), bitmap.getHeight());
 
 		int width = bitmap.getWidth();
 		int height = bitmap.getHeight();
-
-		int[] pixels = new int[width * height];
-		bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+		dataWidth = width;
+		dataHeight = height;
+		left = 0;
+		top = 0;
 
 		// In order to measure pure decoding speed, we convert the entire image
 		// to a greyscale array
 		// up front, which is the same as the Y channel of the
 		// YUVLuminanceSource in the real app.
 		luminances = new byte[width * height];
-		for (int y = 0; y < height; y++) {
-			int offset = y * width;
-			for (int x = 0; x < width; x++) {
-				int pixel = pixels[offset + x];
-				int r = (pixel >> 16) & 0xff;
-				int g = (pixel >> 8) & 0xff;
-				int b = pixel & 0xff;
-				if (r == g && g == b) {
-					// Image is already greyscale, so pick any channel.
-					luminances[offset + x] = (byte) r;
+		Bitmap.Config config = bitmap.getConfig();
+		if (config == Bitmap.Config.ARGB_8888 || config == Bitmap.Config.RGB_565
+				|| config == Bitmap.Config.ALPHA_8) {
+			ByteBuffer buffer = ensureBuffer(scratch, bitmap);
+			bitmap.copyPixelsToBuffer(buffer);
+			buffer.flip();
+			int rowBytes = buffer.remaining() / height;
+			byte[] row = new byte[rowBytes];
+			for (int y = 0; y < height; y++) {
+				buffer.position(y * rowBytes);
+				buffer.get(row, 0, rowBytes);
+				if (config == Bitmap.Config.ARGB_8888) {
+					argb8888Row(row, y * width, width);
+				} else if (config == Bitmap.Config.RGB_565) {
+					rgb565Row(row, y * width, width);
 				} else {
-					// Calculate luminance cheaply, favoring green.
-					luminances[offset + x] = (byte) ((r + g + g + b) >> 2);
+					alpha8Row(row, y * width, width);
+				}
+			}
+		} else {
+			// Other configs (hardware, half float) go through the framework, one row at a time.
+			int[] pixels = new int[width];
+			for (int y = 0; y < height; y++) {
+				bitmap.getPixels(pixels, 0, width, 0, y, width, 1);
+				for (int x = 0; x < width; x++) {
+					int pixel = pixels[x];
+					luminances[y * width + x] =
+							luminance((pixel >> 16) & 0xff, (pixel >> 8) & 0xff, pixel & 0xff);
 				}
 			}
 		}
 	}
 
+	private RGBLuminanceSource(byte[] luminances, int dataWidth, int dataHeight, int left, int top,
+			int width, int height) {
+		super(width, height);
+		if (left + width > dataWidth || top + height > dataHeight) {
+			throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+		}
+		this.luminances = luminances;
+		this.dataWidth = dataWidth;
+		this.dataHeight = dataHeight;
+		this.left = left;
+		this.top = top;
+	}
+
+	/**
+	 * Returns {@code scratch} if it can hold the pixels of {@code bitmap}, otherwise a new direct
+	 * buffer that can. The buffer is cleared either way.
+	 */
+	public static ByteBuffer ensureBuffer(ByteBuffer scratch, Bitmap bitmap) {
+		int byteCount = bitmap.getRowBytes() * bitmap.getHeight();
+		if (scratch == null || scratch.capacity() < byteCount) {
+			scratch = ByteBuffer.allocateDirect(byteCount).order(ByteOrder.nativeOrder());
+		}
+		scratch.clear();
+		return scratch;
+	}
+
+	// Memory order is R, G, B, A.
+	private void argb8888Row(byte[] row, int offset, int width) {
+		byte[] luminances = this.luminances;
+		for (int x = 0, i = 0; x < width; x++, i += 4) {
+			luminances[offset + x] = luminance(row[i] & 0xff, row[i + 1] & 0xff, row[i + 2] & 0xff);
+		}
+	}
+
+	// Little endian 16 bit pixels, 5 bits red, 6 green, 5 blue.
+	private void rgb565Row(byte[] row, int offset, int width) {
+		byte[] luminances = this.luminances;
+		for (int x = 0, i = 0; x < width; x++, i += 2) {
+			int pixel = (row[i] & 0xff) | ((row[i + 1] & 0xff) << 8);
+			int r = (pixel >> 8) & 0xf8;
+			int g = (pixel >> 3) & 0xfc;
+			int b = (pixel << 3) & 0xf8;
+			luminances[offset + x] = luminance(r, g, b);
+		}
+	}
 
+	// One coverage byte per pixel; opaque is black on a white background.
+	private void alpha8Row(byte[] row, int offset, int width) {
+		byte[] luminances = this.luminances;
+		for (int x = 0; x < width; x++) {
+			luminances[offset + x] = (byte) (255 - (row[x] & 0xff));
+		}
+	}
 
+	private static byte luminance(int r, int g, int b) {
+		if (r == g && g == b) {
+			// Image is already greyscale, so pick any channel.
+			return (byte) r;
+		}
+		// Calculate luminance cheaply, favoring green.
+		return (byte) ((r + g + g + b) >> 2);
+	}
 
 	@Override
 	public byte[] getRow(int y, byte[] row) {
@@ -81,16 +179,37 @@ public final class RGBLuminanceSource extends LuminanceSource {
 			row = new byte[width];
 		}
 
-		System.arraycopy(luminances, y * width, row, 0, width);
+		System.arraycopy(luminances, (y + top) * dataWidth + left, row, 0, width);
 		return row;
 	}
 
-	// Since this class does not support cropping, the underlying byte array
-	// already contains
-	// exactly what the caller is asking for, so give it to them without a copy.
 	@Override
 	public byte[] getMatrix() {
-		return luminances;
+		int width = getWidth();
+		int height = getHeight();
+		// If the caller asks for the entire underlying image, save the copy and give them the
+		// original data.
+		if (width == dataWidth && height == dataHeight) {
+			return luminances;
+		}
+		byte[] matrix = new byte[width * height];
+		int inputOffset = top * dataWidth + left;
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(luminances, inputOffset, matrix, y * width, width);
+			inputOffset += dataWidth;
+		}
+		return matrix;
+	}
+
+	@Override
+	public boolean isCropSupported() {
+		return true;
+	}
+
+	@Override
+	public LuminanceSource crop(int left, int top, int width, int height) {
+		return new RGBLuminanceSource(luminances, dataWidth, dataHeight, this.left + left,
+				this.top + top, width, height);
 	}
 
 	private static Bitmap loadBitmap(String path) throws FileNotFoundException {
@@ -0,0 +1,154 @@
+package com.google.zxing.decoding;
+
+import android.content.Intent;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.ResultPointCallback;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * What a scan looks for: the formats the caller declared, the character set, and after how many
+ * missed frames a slower {@link DecodeHintType#TRY_HARDER} pass is attempted. Every reader that
+ * is not asked for costs a full pass over each frame, so callers that know they want a QR code
+ * should say so. An image of the scanned code is only rendered for callers that ask for one,
+ * and frames are only averaged for low light when the caller expects to scan in the dark.
+ */
+public final class ScanProfile {
+
+  /**
+   * Default number of consecutive misses before the first TRY_HARDER pass.
+   */
+  public static final int DEFAULT_TRY_HARDER_AFTER = 8;
+
+  /**
+   * Most frames averaged for low light; beyond this a hand-held phone drifts within the window.
+   */
+  public static final int MAX_AVERAGE_FRAMES = 8;
+
+  private final Vector<BarcodeFormat> decodeFormats;
+  private final String characterSet;
+  private final int tryHarderAfter;
+  private final boolean barcodeBitmapWanted;
+  private final int averageFrames;
+
+  /**
+   * Same as {@link #ScanProfile(Vector, String, int, boolean, int)} without a barcode image or
+   * frame averaging.
+   */
+  public ScanProfile(Vector<BarcodeFormat> decodeFormats, String characterSet,
+      int tryHarderAfter) {
+    this(decodeFormats, characterSet, tryHarderAfter, false, 0);
+  }
+
+  /**
+   * Same as {@link #ScanProfile(Vector, String, int, boolean, int)} without frame averaging.
+   */
+  public ScanProfile(Vector<BarcodeFormat> decodeFormats, String characterSet,
+      int tryHarderAfter, boolean barcodeBitmapWanted) {
+    this(decodeFormats, characterSet, tryHarderAfter, barcodeBitmapWanted, 0);
+  }
+
+  /**
+   * @param decodeFormats       Formats to decode, or null for 1D, QR Code and Data Matrix.
+   * @param characterSet        Character set hint, or null.
+   * @param tryHarderAfter      Consecutive misses before each TRY_HARDER pass, or 0 to never try
+   *                            harder.
+   * @param barcodeBitmapWanted Whether a greyscale image of the framing rect is rendered on
+   *                            success.
+   * @param averageFrames       Frames averaged for low light, rounded down to a power of two
+   *                            and at most {@link #MAX_AVERAGE_FRAMES}, or 0 not to average.
+   */
+  public ScanProfile(Vector<BarcodeFormat> decodeFormats, String characterSet,
+      int tryHarderAfter, boolean barcodeBitmapWanted, int averageFrames) {
+    if (decodeFormats == null || decodeFormats.isEmpty()) {
+      decodeFormats = new Vector<BarcodeFormat>();
+      decodeFormats.addAll(DecodeFormatManager.ONE_D_FORMATS);
+      decodeFormats.addAll(DecodeFormatManager.QR_CODE_FORMATS);
+      decodeFormats.addAll(DecodeFormatManager.DATA_MATRIX_FORMATS);
+    }
+    this.decodeFormats = decodeFormats;
+    this.characterSet = characterSet;
+    this.tryHarderAfter = Math.max(0, tryHarderAfter);
+    this.barcodeBitmapWanted = barcodeBitmapWanted;
+    this.averageFrames = Integer.highestOneBit(Math.max(0, Math.min(averageFrames,
+        MAX_AVERAGE_FRAMES)));
+  }
+
+  /**
+   * Reads {@link Intents.Scan#MODE}, {@link Intents.Scan#SCAN_FORMATS},
+   * {@link Intents.Scan#CHARACTER_SET}, {@link Intents.Scan#TRY_HARDER_AFTER},
+   * {@link Intents.Scan#SAVE_BARCODE_BITMAP} and {@link Intents.Scan#AVERAGE_FRAMES} from the
+   * intent that started the scan.
+   */
+  public static ScanProfile fromIntent(Intent intent) {
+    if (intent == null) {
+      return new ScanProfile(null, null, DEFAULT_TRY_HARDER_AFTER);
+    }
+    return new ScanProfile(DecodeFormatManager.parseDecodeFormats(intent),
+        intent.getStringExtra(Intents.Scan.CHARACTER_SET),
+        intent.getIntExtra(Intents.Scan.TRY_HARDER_AFTER, DEFAULT_TRY_HARDER_AFTER),
+        intent.getBooleanExtra(Intents.Scan.SAVE_BARCODE_BITMAP, false),
+        intent.getIntExtra(Intents.Scan.AVERAGE_FRAMES, 0));
+  }
+
+  public Vector<BarcodeFormat> getDecodeFormats() {
+    return decodeFormats;
+  }
+
+  public String getCharacterSet() {
+    return characterSet;
+  }
+
+  public int getTryHarderAfter() {
+    return tryHarderAfter;
+  }
+
+  public boolean isBarcodeBitmapWanted() {
+    return barcodeBitmapWanted;
+  }
+
+  /**
+   * Frames averaged for low light, or 0 when frames are decoded one at a time only.
+   */
+  public int getAverageFrames() {
+    return averageFrames;
+  }
+
+  /**
+   * Whether a frame that just missed, the {@code misses}-th in a row, deserves a TRY_HARDER pass.
+   * Only every {@code tryHarderAfter}-th miss gets one, so a code that is simply not in view yet
+   * does not slow every frame down.
+   */
+  public boolean shouldTryHarder(int misses) {
+    return tryHarderAfter > 0 && misses > 0 && misses % tryHarderAfter == 0;
+  }
+
+  /**
+   * Hints for the fast pass run on every frame.
+   */
+  public Hashtable<DecodeHintType, Object> buildHints(ResultPointCallback resultPointCallback) {
+    Hashtable<DecodeHintType, Object> hints = new Hashtable<DecodeHintType, Object>(3);
+    hints.put(DecodeHintType.POSSIBLE_FORMATS, decodeFormats);
+    if (characterSet != null) {
+      hints.put(DecodeHintType.CHARACTER_SET, characterSet);
+    }
+    if (resultPointCallback != null) {
+      hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, resultPointCallback);
+    }
+    return hints;
+  }
+
+  /**
+   * Hints for the fallback pass: the same as {@link #buildHints} plus TRY_HARDER.
+   */
+  public Hashtable<DecodeHintType, Object> buildTryHarderHints(
+      ResultPointCallback resultPointCallback) {
+    Hashtable<DecodeHintType, Object> hints = buildHints(resultPointCallback);
+    hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+    return hints;
+  }
+
+}
@@ -0,0 +1,277 @@
+package com.google.zxing.decoding;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What happened during one scan, from the moment the scanner is shown until it finds a code or
+ * goes away: how long the camera took to open and to deliver its first frame, how many frames
+ * arrived, were turned away by the {@link FrameQualityGate} or decoded, how long each stage of a
+ * decode took, and how long it took to the first result. Enough to tell, on a given phone,
+ * whether scanning is slow because of the camera, the frame rate or the decoder.
+ *
+ * Stage timings go into fixed {@link Histogram}s, so recording a frame allocates nothing and
+ * costs a few atomic increments; the decode workers record concurrently. {@link #appendSummary}
+ * feeds the debug overlay of the viewfinder, and {@link #export} appends the session to a text
+ * file that can be pulled off the phone.
+ */
+public final class ScanTelemetry {
+
+  private static final int NOT_YET = -1;
+
+  private final long startNanos;
+  private final long startMillis;
+  private final String device;
+
+  private volatile long cameraOpenNanos = NOT_YET;
+  private final AtomicLong firstFrameNanos = new AtomicLong(NOT_YET);
+  private final AtomicLong firstResultNanos = new AtomicLong(NOT_YET);
+
+  private final AtomicInteger framesReceived = new AtomicInteger();
+  private final AtomicInteger framesMoving = new AtomicInteger();
+  private final AtomicInteger framesBlurred = new AtomicInteger();
+  private final AtomicInteger framesDecoded = new AtomicInteger();
+  private final AtomicInteger compositesDecoded = new AtomicInteger();
+
+  private final Histogram rotate = new Histogram("rotate");
+  private final Histogram binarize = new Histogram("binarize");
+  private final Histogram read = new Histogram("detect+decode");
+  private final Histogram total = new Histogram("total");
+
+  /**
+   * Starts a session now.
+   *
+   * @param device Describes the phone in the export, e.g. its model.
+   */
+  public ScanTelemetry(String device) {
+    this(device, System.nanoTime(), System.currentTimeMillis());
+  }
+
+  ScanTelemetry(String device, long startNanos, long startMillis) {
+    this.device = device;
+    this.startNanos = startNanos;
+    this.startMillis = startMillis;
+  }
+
+  /**
+   * The camera driver took {@code nanos} to open.
+   */
+  public void cameraOpened(long nanos) {
+    cameraOpenNanos = nanos;
+  }
+
+  /**
+   * A preview frame reached the decode thread.
+   */
+  void frameReceived(long now) {
+    framesReceived.incrementAndGet();
+    firstFrameNanos.compareAndSet(NOT_YET, now - startNanos);
+  }
+
+  /**
+   * The frame was turned away with {@link FrameQualityGate#MOVING} or
+   * {@link FrameQualityGate#BLURRED}.
+   */
+  void frameSkipped(int verdict) {
+    if (verdict == FrameQualityGate.MOVING) {
+      framesMoving.incrementAndGet();
+    } else {
+      framesBlurred.incrementAndGet();
+    }
+  }
+
+  /**
+   * A frame, or a {@link FrameAccumulator} composite, was decoded. The read time covers locating
+   * the code and decoding it, which the readers do in one call.
+   */
+  void frameDecoded(boolean composite, long rotateNanos, long binarizeNanos, long readNanos,
+      long totalNanos) {
+    framesDecoded.incrementAndGet();
+    if (composite) {
+      compositesDecoded.incrementAndGet();
+    }
+    rotate.record(rotateNanos);
+    binarize.record(binarizeNanos);
+    read.record(readNanos);
+    total.record(totalNanos);
+  }
+
+  /**
+   * A code was found.
+   */
+  void resultFound(long now) {
+    firstResultNanos.compareAndSet(NOT_YET, now - startNanos);
+  }
+
+  public int getFramesReceived() {
+    return framesReceived.get();
+  }
+
+  public int getFramesDecoded() {
+    return framesDecoded.get();
+  }
+
+  /**
+   * Time from the start of the session to the first result, or -1 if none was found.
+   */
+  public long getTimeToFirstResultMillis() {
+    return toMillis(firstResultNanos.get());
+  }
+
+  Histogram getRotate() {
+    return rotate;
+  }
+
+  Histogram getBinarize() {
+    return binarize;
+  }
+
+  Histogram getRead() {
+    return read;
+  }
+
+  Histogram getTotal() {
+    return total;
+  }
+
+  /**
+   * Appends a few short lines for the debug overlay, separated by '\n'. Called on every redraw,
+   * so it only appends to {@code out}, which the caller reuses.
+   */
+  public void appendSummary(StringBuilder out) {
+    out.append("open ").append(toMillis(cameraOpenNanos))
+        .append(" ms  1st frame ").append(toMillis(firstFrameNanos.get()))
+        .append(" ms  1st result ").append(toMillis(firstResultNanos.get())).append(" ms\n");
+    out.append("frames ").append(framesReceived.get())
+        .append("  decoded ").append(framesDecoded.get())
+        .append("  moving ").append(framesMoving.get())
+        .append("  blurred ").append(framesBlurred.get())
+        .append("  averaged ").append(compositesDecoded.get()).append('\n');
+    appendStage(out, rotate);
+    appendStage(out, binarize);
+    appendStage(out, read);
+    appendStage(out, total);
+  }
+
+  private static void appendStage(StringBuilder out, Histogram histogram) {
+    out.append(histogram.getName())
+        .append(" p50 ").append(histogram.percentileMillis(50))
+        .append(" p90 ").append(histogram.percentileMillis(90))
+        .append(" max ").append(histogram.getMaxMillis()).append(" ms\n");
+  }
+
+  /**
+   * Appends this session to {@code file}, starting the file over once it passes
+   * {@code maxBytes}.
+   */
+  public void export(File file, long maxBytes) throws IOException {
+    boolean append = file.length() < maxBytes;
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8");
+    try {
+      SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+      StringBuilder out = new StringBuilder(512);
+      out.append("# ").append(format.format(new Date(startMillis))).append("  ")
+          .append(device).append('\n');
+      appendSummary(out);
+      for (Histogram histogram : new Histogram[] {rotate, binarize, read, total}) {
+        histogram.appendBuckets(out);
+      }
+      out.append('\n');
+      writer.write(out.toString());
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static long toMillis(long nanos) {
+    return nanos == NOT_YET ? NOT_YET : nanos / 1000000L;
+  }
+
+  /**
+   * Counts durations in fixed, doubling buckets from under 0.5 ms to 512 ms and over; safe to
+   * record into from several threads.
+   */
+  static final class Histogram {
+
+    // Upper bounds of the buckets, in microseconds; the last bucket has none.
+    private static final int[] BOUNDS_US =
+        {500, 1000, 2000, 4000, 8000, 16000, 32000, 64000, 128000, 256000, 512000};
+
+    private final String name;
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(BOUNDS_US.length + 1);
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    Histogram(String name) {
+      this.name = name;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    void record(long nanos) {
+      long micros = nanos / 1000L;
+      int bucket = 0;
+      while (bucket < BOUNDS_US.length && micros >= BOUNDS_US[bucket]) {
+        bucket++;
+      }
+      counts.incrementAndGet(bucket);
+      long max;
+      do {
+        max = maxNanos.get();
+      } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+    }
+
+    int getCount() {
+      int count = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        count += counts.get(i);
+      }
+      return count;
+    }
+
+    /**
+     * The upper bound, in whole milliseconds rounded up, of the bucket holding the
+     * {@code percent}-th percentile; the maximum for the open last bucket, and 0 when empty.
+     */
+    long percentileMillis(int percent) {
+      int count = getCount();
+      if (count == 0) {
+        return 0;
+      }
+      int rank = (count * percent + 99) / 100;
+      int seen = 0;
+      for (int i = 0; i < BOUNDS_US.length; i++) {
+        seen += counts.get(i);
+        if (seen >= rank) {
+          return (BOUNDS_US[i] + 999) / 1000;
+        }
+      }
+      return getMaxMillis();
+    }
+
+    long getMaxMillis() {
+      return (maxNanos.get() + 999999L) / 1000000L;
+    }
+
+    void appendBuckets(StringBuilder out) {
+      out.append(name).append(':');
+      for (int i = 0; i < counts.length(); i++) {
+        out.append(i < BOUNDS_US.length ? " <" : " >=")
+            .append(BOUNDS_US[Math.min(i, BOUNDS_US.length - 1)] / 1000.0f).append("ms=")
+            .append(counts.get(i));
+      }
+      out.append('\n');
+    }
+  }
+
+}
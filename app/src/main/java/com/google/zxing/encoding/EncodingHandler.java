@@ -2,11 +2,14 @@ package com.google.zxing.encoding;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.EncodeHintType;
 import com.google.zxing.MultiFormatWriter;
 import com.google.zxing.WriterException;
+import com.google.zxing.common.BitArray;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
@@ -44,6 +47,43 @@ public final class EncodingHandler {
 		return bitmap;
 	}
 	
+	/**
+	 * 按模块生成二维码：每个模块占 scale×scale 像素，scale 取让边长不超过 size 的最大整数，模块边缘清晰不失真。
+	 * <p>每一行按 BitMatrix 中连续的黑色模块整段填充，不逐像素写 int[] 数组</p>
+	 *
+	 * @param content 二维码内容
+	 * @param size    最大边长，实际边长为模块数的整数倍（至少每模块 1 像素）
+	 * @param config  ARGB_8888 / RGB_565 生成白底黑码；ALPHA_8 每像素 1 字节，
+	 *                只有黑色模块不透明，显示时需放在白色背景上
+	 * @return 二维码
+	 */
+	public static Bitmap createQRCode(String content, int size, Bitmap.Config config) throws WriterException {
+		Map<EncodeHintType, Object> hints = new HashMap<>();
+		hints.put(EncodeHintType.CHARACTER_SET, "utf-8");
+		// 宽高传 0 得到每个模块 1 像素（含静区）的矩阵，再自己按整数倍放大
+		BitMatrix modules = new QRCodeWriter().encode(content, BarcodeFormat.QR_CODE, 0, 0, hints);
+		int count = modules.getWidth();
+		int scale = Math.max(1, size / count);
+		int pixels = count * scale;
+		Bitmap bitmap = Bitmap.createBitmap(pixels, pixels, config);
+		bitmap.eraseColor(config == Bitmap.Config.ALPHA_8 ? Color.TRANSPARENT : Color.WHITE);
+		Canvas canvas = new Canvas(bitmap);
+		Paint paint = new Paint();
+		paint.setColor(Color.BLACK);
+		BitArray row = new BitArray(count);
+		for (int y = 0; y < count; y++) {
+			row = modules.getRow(y, row);
+			int top = y * scale;
+			int start = row.getNextSet(0);
+			while (start < count) {
+				int end = row.getNextUnset(start);
+				canvas.drawRect(start * scale, top, end * scale, top + scale, paint);
+				start = row.getNextSet(end);
+			}
+		}
+		return bitmap;
+	}
+
 	/**
 	 * 创建二维码
 	 *
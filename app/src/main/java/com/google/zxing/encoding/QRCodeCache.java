@@ -0,0 +1,47 @@
+package com.google.zxing.encoding;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.google.zxing.WriterException;
+
+/**
+ * 生成好的二维码图片缓存，按内容、边长和像素格式区分，按图片占用的字节数做 LRU 淘汰。
+ * <p>在几个收款码之间来回切换时直接复用已生成的图片。可在任意线程调用。</p>
+ */
+public final class QRCodeCache {
+
+	private final LruCache<String, Bitmap> cache;
+
+	/**
+	 * @param maxBytes 缓存图片占用内存的上限
+	 */
+	public QRCodeCache(int maxBytes) {
+		cache = new LruCache<String, Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(String key, Bitmap value) {
+				return value.getByteCount();
+			}
+		};
+	}
+
+	/**
+	 * 取缓存的二维码，没有则用 {@link EncodingHandler#createQRCode(String, int, Bitmap.Config)} 生成并缓存
+	 */
+	public Bitmap get(String content, int size, Bitmap.Config config) throws WriterException {
+		String key = size + "/" + config + "/" + content;
+		Bitmap bitmap = cache.get(key);
+		if (bitmap == null) {
+			bitmap = EncodingHandler.createQRCode(content, size, config);
+			cache.put(key, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * 清空缓存。被淘汰的图片可能还在显示，不主动 recycle
+	 */
+	public void clear() {
+		cache.evictAll();
+	}
+}
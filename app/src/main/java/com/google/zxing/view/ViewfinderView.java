@@ -20,24 +20,20 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.ComposeShader;
-import android.graphics.LinearGradient;
+import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
 import android.graphics.RadialGradient;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Shader;
-import android.graphics.SweepGradient;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.View;
 
 import com.vone.qrcode.R;
 import com.google.zxing.ResultPoint;
 import com.google.zxing.camera.CameraManager;
-
-import java.util.Collection;
-import java.util.HashSet;
+import com.google.zxing.decoding.ScanTelemetry;
 
 
 /**
@@ -54,6 +50,9 @@ public final class ViewfinderView extends View {
   private static final int    CORNER_RECT_HEIGHT            =   40; //扫描区边角的高
   private static final int    SCANNER_LINE_MOVE_DISTANCE    =   5;  //扫描线移动距离
   private static final int    SCANNER_LINE_HEIGHT           =   10;  //扫描线宽度
+  private static final int    MAX_RESULT_POINTS             =   20; //每帧最多绘制的可能结果点
+  private static final long   TELEMETRY_REFRESH_DELAY       =   500L; //统计信息刷新间隔
+  private static final float  TELEMETRY_TEXT_SIZE           =   26f;
 
   private final Paint paint;
   private Bitmap resultBitmap;
@@ -78,8 +77,26 @@ public final class ViewfinderView extends View {
   public static int scannerStart = 0;
   public static int scannerEnd = 0;
 
-  private Collection<ResultPoint> possibleResultPoints;
-  private Collection<ResultPoint> lastPossibleResultPoints;
+  private final int laserShadeColor;
+  // The laser gradient only depends on the frame's horizontal position; it is built once per
+  // frame rect and moved down with its local matrix.
+  private Shader laserShader;
+  private int laserShaderLeft = -1;
+  private int laserShaderRight = -1;
+  private final Matrix laserMatrix = new Matrix();
+  private final RectF laserRect = new RectF();
+
+  // Result points are written by the decode workers into possibleResultPoints (under this view's
+  // lock) and swapped out in onDraw(); the three buffers rotate so nothing is allocated per frame.
+  private PointBuffer possibleResultPoints = new PointBuffer();
+  private PointBuffer lastPossibleResultPoints = new PointBuffer();
+  private PointBuffer spareResultPoints = new PointBuffer();
+
+  // Debug overlay; null unless the scan asked for it.
+  private ScanTelemetry telemetry;
+  private final Paint telemetryPaint;
+  private final StringBuilder telemetryText = new StringBuilder(512);
+  private long telemetryDrawn;
 
   // This constructor is used when the class is built from an XML resource.
   public ViewfinderView(Context context, AttributeSet attrs) {
@@ -96,14 +113,17 @@ public final class ViewfinderView extends View {
     labelTextColor = array.getColor(R.styleable.ViewfinderView_label_text_color, 0x90FFFFFF);
     labelText = array.getString(R.styleable.ViewfinderView_label_text);
     labelTextSize = array.getFloat(R.styleable.ViewfinderView_label_text_size, 36f);
+    array.recycle();
+    laserShadeColor = shadeColor(laserColor);
 
     // Initialize these once for performance rather than calling them every time in onDraw().
     paint = new Paint();
     paint.setAntiAlias(true);
     scannerAlpha = 0;
-    possibleResultPoints = new HashSet<ResultPoint>(5);
-
-
+    telemetryPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    telemetryPaint.setColor(0xFFFFFFFF);
+    telemetryPaint.setTextSize(TELEMETRY_TEXT_SIZE);
+    telemetryPaint.setShadowLayer(2f, 1f, 1f, 0xFF000000);
   }
 
   @Override
@@ -121,7 +141,9 @@ public final class ViewfinderView extends View {
     int height = canvas.getHeight();
     // Draw the exterior (i.e. outside the framing rect) darkened
     drawExterior(canvas, frame, width, height);
-
+    if (telemetry != null) {
+      drawTelemetry(canvas);
+    }
 
     if (resultBitmap != null) {
       // Draw the opaque result bitmap over the scanning rectangle
@@ -137,26 +159,39 @@ public final class ViewfinderView extends View {
       // Draw a red "laser scanner" line through the middle to show decoding is active
       drawLaserScanner(canvas, frame);
 
-      Collection<ResultPoint> currentPossible = possibleResultPoints;
-      Collection<ResultPoint> currentLast = lastPossibleResultPoints;
-      if (currentPossible.isEmpty()) {
-        lastPossibleResultPoints = null;
-      } else {
-        possibleResultPoints = new HashSet<ResultPoint>(5);
-        lastPossibleResultPoints = currentPossible;
+      PointBuffer currentPossible;
+      PointBuffer currentLast = lastPossibleResultPoints;
+      // Points arrive from every decode worker, so swap the buffer under the same lock they use.
+      synchronized (this) {
+        currentPossible = possibleResultPoints;
+        if (currentPossible.size() > 0) {
+          possibleResultPoints = spareResultPoints;
+        }
+      }
+      int possibleCount = currentPossible.size();
+      if (possibleCount > 0) {
         paint.setAlpha(OPAQUE);
         paint.setColor(resultPointColor);
-        for (ResultPoint point : currentPossible) {
-          canvas.drawCircle(frame.left + point.getX(), frame.top + point.getY(), 6.0f, paint);
+        for (int i = 0; i < possibleCount; i++) {
+          canvas.drawCircle(frame.left + currentPossible.x[i], frame.top + currentPossible.y[i],
+              6.0f, paint);
         }
       }
-      if (currentLast != null) {
+      int lastCount = currentLast.size();
+      if (lastCount > 0) {
         paint.setAlpha(OPAQUE / 2);
         paint.setColor(resultPointColor);
-        for (ResultPoint point : currentLast) {
-          canvas.drawCircle(frame.left + point.getX(), frame.top + point.getY(), 3.0f, paint);
+        for (int i = 0; i < lastCount; i++) {
+          canvas.drawCircle(frame.left + currentLast.x[i], frame.top + currentLast.y[i], 3.0f,
+              paint);
         }
       }
+      currentLast.clear();
+      if (possibleCount > 0) {
+        // This frame's points are drawn small next frame; the old ones become the spare buffer.
+        spareResultPoints = currentLast;
+        lastPossibleResultPoints = currentPossible;
+      }
 
       // Request another update at the animation interval, but only repaint the laser line,
       // not the entire viewfinder mask.
@@ -165,6 +200,27 @@ public final class ViewfinderView extends View {
     }
   }
 
+  // 左上角绘制扫码统计。只有边框内每帧重绘，这里隔一段时间整体重绘一次
+  private void drawTelemetry(Canvas canvas) {
+    telemetryText.setLength(0);
+    telemetry.appendSummary(telemetryText);
+    float lineHeight = TELEMETRY_TEXT_SIZE * 1.25f;
+    float y = lineHeight;
+    int start = 0;
+    for (int i = 0; i < telemetryText.length(); i++) {
+      if (telemetryText.charAt(i) == '\n') {
+        canvas.drawText(telemetryText, start, i, 8f, y, telemetryPaint);
+        y += lineHeight;
+        start = i + 1;
+      }
+    }
+    long now = SystemClock.uptimeMillis();
+    if (now - telemetryDrawn >= TELEMETRY_REFRESH_DELAY) {
+      telemetryDrawn = now;
+      postInvalidateDelayed(TELEMETRY_REFRESH_DELAY);
+    }
+  }
+
   //绘制文本
   private void drawTextInfo(Canvas canvas, Rect frame) {
     paint.setColor(labelTextColor);
@@ -199,49 +255,38 @@ public final class ViewfinderView extends View {
 //    scannerAlpha = (scannerAlpha + 1) % SCANNER_ALPHA.length;
 //    int middle = frame.height() / 2 + frame.top;
 //    canvas.drawRect(frame.left + 2, middle - 1, frame.right - 1, middle + 2, paint);
-    //线性渐变
-    LinearGradient linearGradient = new LinearGradient(
-            frame.left, scannerStart,
-            frame.left, scannerStart + SCANNER_LINE_HEIGHT,
-            shadeColor(laserColor),
-            laserColor,
-            Shader.TileMode.MIRROR);
-
-    RadialGradient radialGradient = new RadialGradient(
-            (float)(frame.left + frame.width() / 2),
-            (float)(scannerStart + SCANNER_LINE_HEIGHT / 2),
+    if (laserShader == null || laserShaderLeft != frame.left || laserShaderRight != frame.right) {
+      // Centred at y = 0; the local matrix moves it to the current line position.
+      laserShader = new RadialGradient(
+              (float)(frame.left + frame.width() / 2),
+              (float)(SCANNER_LINE_HEIGHT / 2),
               360f,
-            laserColor,
-            shadeColor(laserColor),
-            Shader.TileMode.MIRROR);
-
-    SweepGradient sweepGradient = new SweepGradient(
-            (float)(frame.left + frame.width() / 2),
-            (float)(scannerStart + SCANNER_LINE_HEIGHT),
-            shadeColor(laserColor),
-            laserColor);
-
-    ComposeShader composeShader = new ComposeShader(radialGradient, linearGradient, PorterDuff.Mode.ADD);
+              laserColor,
+              laserShadeColor,
+              Shader.TileMode.MIRROR);
+      laserShaderLeft = frame.left;
+      laserShaderRight = frame.right;
+    }
 
-    paint.setShader(radialGradient);
     if(scannerStart <= scannerEnd) {
+      laserMatrix.setTranslate(0, scannerStart);
+      laserShader.setLocalMatrix(laserMatrix);
+      paint.setShader(laserShader);
       //矩形
 //      canvas.drawRect(frame.left, scannerStart, frame.right, scannerStart + SCANNER_LINE_HEIGHT, paint);
       //椭圆
-      RectF rectF = new RectF(frame.left + 2 * SCANNER_LINE_HEIGHT, scannerStart, frame.right - 2 * SCANNER_LINE_HEIGHT, scannerStart + SCANNER_LINE_HEIGHT);
-      canvas.drawOval(rectF, paint);
+      laserRect.set(frame.left + 2 * SCANNER_LINE_HEIGHT, scannerStart, frame.right - 2 * SCANNER_LINE_HEIGHT, scannerStart + SCANNER_LINE_HEIGHT);
+      canvas.drawOval(laserRect, paint);
+      paint.setShader(null);
       scannerStart += SCANNER_LINE_MOVE_DISTANCE;
     } else {
       scannerStart = frame.top;
     }
-    paint.setShader(null);
   }
 
   //处理颜色模糊
   public int shadeColor(int color) {
-    String hax = Integer.toHexString(color);
-    String result = "20"+hax.substring(2);
-    return Integer.valueOf(result, 16);
+    return 0x20000000 | (color & 0x00FFFFFF);
   }
 
   // 绘制扫描区边框 Draw a two pixel solid black border inside the framing rect
@@ -262,6 +307,14 @@ public final class ViewfinderView extends View {
     canvas.drawRect(0, frame.bottom + 1, width, height, paint);
   }
 
+  /**
+   * Shows the statistics of the current scan over the preview, or hides them when null.
+   */
+  public void setTelemetry(ScanTelemetry telemetry) {
+    this.telemetry = telemetry;
+    invalidate();
+  }
+
   public void drawViewfinder() {
     resultBitmap = null;
     invalidate();
@@ -277,8 +330,32 @@ public final class ViewfinderView extends View {
     invalidate();
   }
 
-  public void addPossibleResultPoint(ResultPoint point) {
-    possibleResultPoints.add(point);
+  public synchronized void addPossibleResultPoint(ResultPoint point) {
+    possibleResultPoints.add(point.getX(), point.getY());
+  }
+
+  /**
+   * A fixed number of points; once full, new points overwrite the oldest.
+   */
+  private static final class PointBuffer {
+    final float[] x = new float[MAX_RESULT_POINTS];
+    final float[] y = new float[MAX_RESULT_POINTS];
+    private int added;
+
+    void add(float px, float py) {
+      int index = added % MAX_RESULT_POINTS;
+      x[index] = px;
+      y[index] = py;
+      added++;
+    }
+
+    int size() {
+      return Math.min(added, MAX_RESULT_POINTS);
+    }
+
+    void clear() {
+      added = 0;
+    }
   }
 
 }
@@ -0,0 +1,321 @@
+package com.vone.vmq;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.SocketFactory;
+
+import okhttp3.Dns;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 扫码或手动输入配置后的上线检查：在后台线程依次解析域名、建立 TCP 连接、发送签名心跳，
+ * 哪一步失败就报告哪一步，界面不用等网络
+ * <p>
+ * 最近一次检查的结果放在原子引用里，任意线程读到的都是最新结果；检查过程中又开始了新的配置时，
+ * 旧检查的结果直接丢弃。除了解析返回用的 org.json，和 {@link PushClient} 一样只依赖 okhttp，
+ * 便于在 JVM 上测试
+ */
+public class ConfigOnboarding {
+
+    // 检查还没完成
+    public static final int STAGE_CHECKING = -1;
+    public static final int STAGE_PARSE = 0;
+    public static final int STAGE_DNS = 1;
+    public static final int STAGE_CONNECT = 2;
+    public static final int STAGE_HEART = 3;
+    public static final int STAGE_DONE = 4;
+
+    public interface Listener {
+        /**
+         * 在检查线程上回调，更新界面需要自己切回主线程
+         */
+        void onResult(Result result);
+    }
+
+    public static final class Result {
+        public final String host;
+        public final String key;
+        // 服务端确认了签名，可以开始监听
+        public final boolean ready;
+        // 失败的那一步，全部通过为 STAGE_DONE
+        public final int stage;
+        public final String message;
+        // 各阶段耗时，没走到的为 -1
+        public final long dnsMillis;
+        public final long connectMillis;
+        public final long heartMillis;
+
+        Result(String host, String key, boolean ready, int stage, String message,
+               long dnsMillis, long connectMillis, long heartMillis) {
+            this.host = host;
+            this.key = key;
+            this.ready = ready;
+            this.stage = stage;
+            this.message = message;
+            this.dnsMillis = dnsMillis;
+            this.connectMillis = connectMillis;
+            this.heartMillis = heartMillis;
+        }
+
+        public boolean isChecking() {
+            return stage == STAGE_CHECKING;
+        }
+
+        /**
+         * 服务端是否有应答（不管签名对不对）
+         */
+        public boolean isReachable() {
+            return stage >= STAGE_HEART;
+        }
+
+        public String describe() {
+            return (ready ? "配置检查通过: " : "配置检查失败: ") + message
+                    + " (解析 " + dnsMillis + "ms, 连接 " + connectMillis + "ms, 心跳 " + heartMillis + "ms)";
+        }
+    }
+
+    private final OkHttpClient client;
+    private final AtomicReference<Result> latest = new AtomicReference<>();
+
+    public ConfigOnboarding(OkHttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * 拆分网站上显示的配置数据“地址/密钥”
+     *
+     * @return {地址, 密钥}，格式不对时返回 null
+     */
+    public static String[] parse(String content) {
+        if (content == null) {
+            return null;
+        }
+        String[] tmp = content.trim().split("/");
+        if (tmp.length != 2 || tmp[0].length() == 0 || tmp[1].length() == 0) {
+            return null;
+        }
+        return tmp;
+    }
+
+    /**
+     * 开始检查一份新配置，之前还没完成的检查作废
+     */
+    public void start(final String host, final String key, final Listener listener) {
+        final Result pending = new Result(host, key, false, STAGE_CHECKING, "检查中", -1, -1, -1);
+        latest.set(pending);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Result result = check(host, key);
+                // 只有结果还是这次检查的时候才替换，期间开始了新检查就丢掉
+                if (latest.compareAndSet(pending, result)) {
+                    listener.onResult(result);
+                }
+            }
+        }, "ConfigOnboarding").start();
+    }
+
+    /**
+     * 最近一次配置是否已经检查通过
+     */
+    public boolean isReady() {
+        Result result = latest.get();
+        return result != null && result.ready;
+    }
+
+    /**
+     * 最近一次检查的结果，还在检查中时 {@link Result#isChecking()}，从没检查过为 null
+     */
+    public Result getResult() {
+        return latest.get();
+    }
+
+    /**
+     * 同步执行一次检查，会阻塞调用线程
+     * <p>
+     * 解析和连接都交给 OkHttp 在心跳请求里完成，只建立一次连接；通过包装 Dns 和 SocketFactory
+     * 记录两段耗时，并据此判断失败在哪一步。连接用完放回 client 的连接池，池子允许保留空闲连接时
+     * 后面的请求可以直接复用
+     */
+    Result check(String host, String key) {
+        HttpUrl url = HttpUrl.parse("http://" + host + "/");
+        if (url == null) {
+            return new Result(host, key, false, STAGE_PARSE, "地址格式错误: " + host, -1, -1, -1);
+        }
+
+        Probe probe = new Probe(client.dns(), client.socketFactory());
+        OkHttpClient probed = client.newBuilder().dns(probe).socketFactory(probe.socketFactory).build();
+        Request request = new Request.Builder()
+                .url(PushClient.heartUrl(host, key, System.currentTimeMillis())).get().build();
+        long start = System.nanoTime();
+        String body;
+        int httpCode;
+        try {
+            Response response = probed.newCall(request).execute();
+            try {
+                httpCode = response.code();
+                body = response.body().string();
+            } finally {
+                response.close();
+            }
+        } catch (IOException e) {
+            long heartMillis = probe.heartMillis(start);
+            if (probe.dnsFailed) {
+                return new Result(host, key, false, STAGE_DNS, "域名解析失败: " + url.host(),
+                        probe.dnsMillis(), -1, -1);
+            }
+            if (!probe.connected) {
+                return new Result(host, key, false, STAGE_CONNECT, "无法连接到 " + url.host() + ":" + url.port()
+                        + " (" + e.getMessage() + ")", probe.dnsMillis(), probe.connectMillis(), -1);
+            }
+            // 连接已经建立，是心跳请求本身没拿到应答
+            return new Result(host, key, false, STAGE_HEART, "心跳请求失败: " + e.getMessage(),
+                    probe.dnsMillis(), probe.connectMillis(), heartMillis);
+        }
+        long heartMillis = probe.heartMillis(start);
+
+        HeartReply reply = parseHeart(body);
+        if (httpCode < 200 || httpCode >= 300 || reply == null) {
+            return new Result(host, key, false, STAGE_HEART, "心跳返回 HTTP " + httpCode + ": " + body,
+                    probe.dnsMillis(), probe.connectMillis(), heartMillis);
+        }
+        boolean ready = reply.isSuccess();
+        return new Result(host, key, ready, ready ? STAGE_DONE : STAGE_HEART, reply.msg,
+                probe.dnsMillis(), probe.connectMillis(), heartMillis);
+    }
+
+    /**
+     * 记录一次检查里 OkHttp 解析域名和建立连接的耗时与结果
+     * <p>
+     * okhttp 3.7 还没有 EventListener，这里包装它用到的 Dns 和 SocketFactory 来拿到这两段
+     */
+    private static final class Probe implements Dns {
+        private final Dns dns;
+        final SocketFactory socketFactory;
+
+        volatile long dnsNanos = -1;
+        volatile boolean dnsFailed;
+        volatile long connectNanos = -1;
+        volatile boolean connected;
+
+        Probe(Dns dns, final SocketFactory delegate) {
+            this.dns = dns;
+            this.socketFactory = new SocketFactory() {
+                @Override
+                public Socket createSocket() {
+                    return new ProbeSocket();
+                }
+
+                @Override
+                public Socket createSocket(String host, int port) throws IOException {
+                    return delegate.createSocket(host, port);
+                }
+
+                @Override
+                public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                        throws IOException {
+                    return delegate.createSocket(host, port, localHost, localPort);
+                }
+
+                @Override
+                public Socket createSocket(InetAddress host, int port) throws IOException {
+                    return delegate.createSocket(host, port);
+                }
+
+                @Override
+                public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                                           int localPort) throws IOException {
+                    return delegate.createSocket(address, port, localAddress, localPort);
+                }
+            };
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            long start = System.nanoTime();
+            try {
+                return dns.lookup(hostname);
+            } catch (UnknownHostException e) {
+                dnsFailed = true;
+                throw e;
+            } finally {
+                dnsNanos = System.nanoTime() - start;
+            }
+        }
+
+        long dnsMillis() {
+            return dnsNanos < 0 ? -1 : dnsNanos / 1000000L;
+        }
+
+        long connectMillis() {
+            return connectNanos < 0 ? -1 : connectNanos / 1000000L;
+        }
+
+        /**
+         * 整个请求的耗时去掉解析和连接，剩下发送心跳到收到应答的时间
+         */
+        long heartMillis(long startNanos) {
+            long nanos = System.nanoTime() - startNanos
+                    - Math.max(0, dnsNanos) - Math.max(0, connectNanos);
+            return Math.max(0, nanos) / 1000000L;
+        }
+
+        private final class ProbeSocket extends Socket {
+            @Override
+            public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    super.connect(endpoint, timeout);
+                    connected = true;
+                } finally {
+                    // 多个地址依次尝试时累加
+                    connectNanos = Math.max(0, connectNanos) + System.nanoTime() - start;
+                }
+            }
+        }
+    }
+
+    static final class HeartReply {
+        final int code;
+        final String msg;
+
+        HeartReply(int code, String msg) {
+            this.code = code;
+            this.msg = msg;
+        }
+
+        /**
+         * 兼容新旧两种返回格式：新格式成功为 200，旧格式为 0 或 1
+         */
+        boolean isSuccess() {
+            return code == 200 || code == 0 || code == 1;
+        }
+    }
+
+    /**
+     * 解析心跳返回，只认顶层的 code/msg，格式和检测心跳时一样：
+     * 新格式 {"code": 200, "msg": "消息", "data": null}，旧格式 {"code": 0, "msg": "消息"}
+     *
+     * @return 不是这种格式时返回 null
+     */
+    static HeartReply parseHeart(String body) {
+        try {
+            JSONObject json = new JSONObject(body);
+            return new HeartReply(json.getInt("code"), json.optString("msg", ""));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.vone.vmq;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 进程内事件总线
+ * <p>
+ * 用于监听服务向界面投递日志，替代原来的 sendBroadcast 全局广播，
+ * 避免每条日志都经过 ActivityManagerService 的跨进程调用。
+ * 订阅者列表使用写时复制数组 + CAS 维护，投递时不加锁；
+ * 没有订阅者（界面不可见）时 post 直接返回，不产生任何开销。
+ * <p>
+ * 事件在发布者所在线程回调，订阅者需要自行切换到 UI 线程。
+ */
+public final class EventBus {
+
+    public static final int TYPE_LOG = 0;              // 普通日志
+    public static final int TYPE_PAYMENT_MATCHED = 1;  // 匹配到收款通知
+    public static final int TYPE_PUSH_RESULT = 2;      // 推送订单结果
+    public static final int TYPE_HEARTBEAT_RESULT = 3; // 心跳结果
+
+    public interface Subscriber {
+        void onEvent(Event event);
+    }
+
+    public static final class Event {
+        public final int type;
+        public final String message;
+        public final long time;
+
+        Event(int type, String message) {
+            this.type = type;
+            this.message = message;
+            this.time = System.currentTimeMillis();
+        }
+    }
+
+    private static final Subscriber[] EMPTY = new Subscriber[0];
+    private static final AtomicReference<Subscriber[]> subscribers = new AtomicReference<>(EMPTY);
+
+    private EventBus() {
+    }
+
+    public static void subscribe(Subscriber subscriber) {
+        if (subscriber == null) return;
+        while (true) {
+            Subscriber[] current = subscribers.get();
+            for (Subscriber s : current) {
+                if (s == subscriber) return;
+            }
+            Subscriber[] next = new Subscriber[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = subscriber;
+            if (subscribers.compareAndSet(current, next)) return;
+        }
+    }
+
+    public static void unsubscribe(Subscriber subscriber) {
+        if (subscriber == null) return;
+        while (true) {
+            Subscriber[] current = subscribers.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscriber) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) return;
+            Subscriber[] next;
+            if (current.length == 1) {
+                next = EMPTY;
+            } else {
+                next = new Subscriber[current.length - 1];
+                System.arraycopy(current, 0, next, 0, index);
+                System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            }
+            if (subscribers.compareAndSet(current, next)) return;
+        }
+    }
+
+    /**
+     * 是否有订阅者，调用方可以据此跳过日志字符串的拼接
+     */
+    public static boolean hasSubscribers() {
+        return subscribers.get().length > 0;
+    }
+
+    public static void post(int type, String message) {
+        Subscriber[] current = subscribers.get();
+        if (current.length == 0) {
+            return;
+        }
+        Event event = new Event(type, message);
+        for (Subscriber subscriber : current) {
+            subscriber.onEvent(event);
+        }
+    }
+}
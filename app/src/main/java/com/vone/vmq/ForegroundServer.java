@@ -98,14 +98,19 @@ public class ForegroundServer extends Service {
             if (jsonObject.optBoolean("show", true)) {
                 startLockActivity(this.getString(R.string.app_is_post));
             }
-            tryPushByUrl(url, jsonObject.optInt("try_count", 1));
+            tryPushByUrl(url, jsonObject.optInt("try_count", 1), jsonObject.optString("history_key", null));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private void tryPushByUrl(final String url, final int count) {
+    /**
+     * @param historyKey 不为空时，重试结束后把最终结果写入这条历史记录
+     */
+    private void tryPushByUrl(final String url, final int count, final String historyKey) {
         if (count <= 0) {
+            Log.d("ForegroundServer", "前台推送重试次数用完，放弃");
+            recordPushResult(historyKey, false);
             handler.post(new Runnable() {
                 @Override
                 public void run() {
@@ -124,7 +129,7 @@ public class ForegroundServer extends Service {
                     @Override
                     public void onFailure(Call call, IOException e) {
                         Log.d("ForegroundServer", "onResponse  push: 请求失败");
-                        tryPushByUrl(url, count - 1);
+                        tryPushByUrl(url, count - 1, historyKey);
                     }
 
                     @Override
@@ -140,9 +145,10 @@ public class ForegroundServer extends Service {
                         } finally {
                             if (!response.isSuccessful()) {
                                 Log.d("ForegroundServer", "前台推送HTTP请求不成功，重试");
-                                tryPushByUrl(url, count - 1);
+                                tryPushByUrl(url, count - 1, historyKey);
                             } else {
                                 Log.d("ForegroundServer", "前台推送请求成功，退出前台");
+                                recordPushResult(historyKey, true);
                                 handler.post(new Runnable() {
                                     @Override
                                     public void run() {
@@ -157,6 +163,12 @@ public class ForegroundServer extends Service {
         }, MIN_SHOW_TIME);
     }
 
+    private void recordPushResult(String historyKey, boolean success) {
+        if (historyKey != null) {
+            HistoryStore.get(App.getContext()).recordPushResult(historyKey, success);
+        }
+    }
+
     /**
      * 通过通知启动服务
      */
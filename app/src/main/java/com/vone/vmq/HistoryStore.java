@@ -0,0 +1,278 @@
+package com.vone.vmq;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 通知与推送历史记录，保存在 SQLite 中，标题/内容建立全文索引
+ * <p>
+ * 写入只做入队，由单独的写线程批量取出后在一个事务里用预编译语句执行，
+ * 不阻塞通知回调线程。查询可在任意后台线程调用。
+ */
+class HistoryStore extends SQLiteOpenHelper {
+    private static final String TAG = "HistoryStore";
+
+    private static final String DB_NAME = "history.db";
+    private static final int DB_VERSION = 1;
+
+    // 只保留最近 30 天的数据，每天清理一次
+    private static final long KEEP_TIME = 30L * 24 * 60 * 60 * 1000;
+    private static final long PRUNE_INTERVAL = 24L * 60 * 60 * 1000;
+    private static final int MAX_BATCH = 64;
+    private static final int MAX_QUERY_ROWS = 200;
+
+    static final int STATUS_NONE = 0;     // 普通通知，未推送
+    static final int STATUS_PUSHING = 1;  // 匹配到金额，推送中（包括前台服务重试中）
+    static final int STATUS_SUCCESS = 2;  // 推送成功
+    static final int STATUS_FAILED = 3;   // 推送失败
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_MATCHED = 1;
+    private static final int OP_PUSH_RESULT = 2;
+
+    private static volatile HistoryStore instance;
+
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+
+    static HistoryStore get(Context context) {
+        if (instance == null) {
+            synchronized (HistoryStore.class) {
+                if (instance == null) {
+                    instance = new HistoryStore(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private HistoryStore(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "HistoryWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE history ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "note_key TEXT,"
+                + "time INTEGER NOT NULL,"
+                + "pkg TEXT,"
+                + "title TEXT,"
+                + "body TEXT,"
+                + "amount REAL,"
+                + "push_status INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX history_time ON history(time)");
+        db.execSQL("CREATE INDEX history_key ON history(note_key)");
+        db.execSQL("CREATE INDEX history_pkg_time ON history(pkg, time)");
+        db.execSQL("CREATE INDEX history_amount ON history(amount)");
+        // 中文没有空格分词，优先使用 icu 分词器，个别系统不支持时退回默认分词器
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE history_fts USING fts4("
+                    + "content=\"history\", title, body, tokenize=icu zh_CN)");
+        } catch (SQLException e) {
+            Log.w(TAG, "icu tokenizer unavailable", e);
+            db.execSQL("CREATE VIRTUAL TABLE history_fts USING fts4("
+                    + "content=\"history\", title, body)");
+        }
+        db.execSQL("CREATE TRIGGER history_ai AFTER INSERT ON history BEGIN "
+                + "INSERT INTO history_fts(docid, title, body) VALUES (new._id, new.title, new.body); END");
+        db.execSQL("CREATE TRIGGER history_bd BEFORE DELETE ON history BEGIN "
+                + "INSERT INTO history_fts(history_fts, docid, title, body) "
+                + "VALUES ('delete', old._id, old.title, old.body); END");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+
+    /**
+     * 同一条通知的唯一标识，用于后续更新金额和推送状态
+     */
+    static String keyOf(String pkg, int id, long postTime) {
+        return pkg + ":" + id + ":" + postTime;
+    }
+
+    void recordNotification(String key, String pkg, CharSequence title, CharSequence body) {
+        Op op = new Op(OP_INSERT, key);
+        op.pkg = pkg;
+        op.title = title == null ? "" : title.toString();
+        op.body = body == null ? "" : body.toString();
+        queue.offer(op);
+    }
+
+    void recordMatched(String key, double amount) {
+        Op op = new Op(OP_MATCHED, key);
+        op.amount = amount;
+        queue.offer(op);
+    }
+
+    void recordPushResult(String key, boolean success) {
+        Op op = new Op(OP_PUSH_RESULT, key);
+        op.status = success ? STATUS_SUCCESS : STATUS_FAILED;
+        queue.offer(op);
+    }
+
+    private void writeLoop() {
+        List<Op> batch = new ArrayList<>(MAX_BATCH);
+        SQLiteDatabase db = null;
+        SQLiteStatement insert = null;
+        SQLiteStatement matched = null;
+        SQLiteStatement pushResult = null;
+        long lastPrune = 0;
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                if (db == null) {
+                    db = getWritableDatabase();
+                    insert = db.compileStatement("INSERT INTO history"
+                            + "(note_key, time, pkg, title, body, push_status) VALUES (?, ?, ?, ?, ?, 0)");
+                    matched = db.compileStatement("UPDATE history SET amount = ?, push_status = "
+                            + STATUS_PUSHING + " WHERE note_key = ?");
+                    pushResult = db.compileStatement("UPDATE history SET push_status = ? WHERE note_key = ?");
+                }
+                db.beginTransaction();
+                try {
+                    // 监听服务会常驻很久，不能只在启动时清理一次
+                    long now = System.currentTimeMillis();
+                    if (now - lastPrune >= PRUNE_INTERVAL) {
+                        db.delete("history", "time < ?", new String[]{String.valueOf(now - KEEP_TIME)});
+                        lastPrune = now;
+                    }
+                    for (int i = 0; i < batch.size(); i++) {
+                        Op op = batch.get(i);
+                        switch (op.type) {
+                            case OP_INSERT:
+                                insert.bindString(1, op.key);
+                                insert.bindLong(2, op.time);
+                                insert.bindString(3, op.pkg == null ? "" : op.pkg);
+                                insert.bindString(4, op.title);
+                                insert.bindString(5, op.body);
+                                insert.executeInsert();
+                                break;
+                            case OP_MATCHED:
+                                matched.bindDouble(1, op.amount);
+                                matched.bindString(2, op.key);
+                                matched.executeUpdateDelete();
+                                break;
+                            case OP_PUSH_RESULT:
+                                pushResult.bindLong(1, op.status);
+                                pushResult.bindString(2, op.key);
+                                pushResult.executeUpdateDelete();
+                                break;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                Log.e(TAG, "write history error", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 按条件查询，参数为空表示不限制
+     *
+     * @param keyword 标题/内容全文检索关键字
+     * @param status  推送状态，小于 0 表示全部
+     */
+    List<Record> query(String keyword, String pkg, Double minAmount, Double maxAmount, int status) {
+        StringBuilder where = new StringBuilder("1");
+        List<String> args = new ArrayList<>();
+        if (!TextUtils.isEmpty(keyword)) {
+            where.append(" AND _id IN (SELECT docid FROM history_fts WHERE history_fts MATCH ?)");
+            args.add(keyword);
+        }
+        if (!TextUtils.isEmpty(pkg)) {
+            where.append(" AND pkg = ?");
+            args.add(pkg);
+        }
+        if (minAmount != null) {
+            where.append(" AND amount >= ?");
+            args.add(String.valueOf(minAmount));
+        }
+        if (maxAmount != null) {
+            where.append(" AND amount <= ?");
+            args.add(String.valueOf(maxAmount));
+        }
+        if (status >= 0) {
+            where.append(" AND push_status = ?");
+            args.add(String.valueOf(status));
+        }
+        List<Record> records = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT time, pkg, title, body, amount, push_status FROM history WHERE " + where
+                        + " ORDER BY time DESC LIMIT " + MAX_QUERY_ROWS,
+                args.toArray(new String[0]));
+        try {
+            while (cursor.moveToNext()) {
+                Record record = new Record();
+                record.time = cursor.getLong(0);
+                record.pkg = cursor.getString(1);
+                record.title = cursor.getString(2);
+                record.body = cursor.getString(3);
+                record.amount = cursor.isNull(4) ? null : cursor.getDouble(4);
+                record.status = cursor.getInt(5);
+                records.add(record);
+            }
+        } finally {
+            cursor.close();
+        }
+        return records;
+    }
+
+    static final class Record {
+        long time;
+        String pkg;
+        String title;
+        String body;
+        Double amount;
+        int status;
+    }
+
+    private static final class Op {
+        final int type;
+        final String key;
+        final long time = System.currentTimeMillis();
+        String pkg;
+        String title;
+        String body;
+        double amount;
+        int status;
+
+        Op(int type, String key) {
+            this.type = type;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.vone.vmq;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.vone.qrcode.R;
+
+/**
+ * 日志列表适配器，数据来自环形缓冲区，列表项复用 convertView
+ */
+class LogListAdapter extends BaseAdapter {
+    private final LogRingBuffer buffer;
+
+    LogListAdapter(LogRingBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int getCount() {
+        return buffer.size();
+    }
+
+    @Override
+    public String getItem(int position) {
+        return buffer.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView textView = (TextView) convertView;
+        if (textView == null) {
+            textView = (TextView) LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.item_log, parent, false);
+        }
+        textView.setText(getItem(position));
+        return textView;
+    }
+}
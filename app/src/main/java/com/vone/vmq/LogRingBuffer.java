@@ -0,0 +1,46 @@
+package com.vone.vmq;
+
+/**
+ * 固定容量的日志环形缓冲区，写满后覆盖最旧的一条
+ * <p>
+ * 只在UI线程访问，不做同步
+ */
+class LogRingBuffer {
+    private final String[] entries;
+    private int head; // 最旧一条的位置
+    private int size;
+
+    LogRingBuffer(int capacity) {
+        entries = new String[capacity];
+    }
+
+    void add(String entry) {
+        int capacity = entries.length;
+        if (size < capacity) {
+            entries[(head + size) % capacity] = entry;
+            size++;
+        } else {
+            entries[head] = entry;
+            head = (head + 1) % capacity;
+        }
+    }
+
+    /**
+     * @param index 0 为最旧的一条
+     */
+    String get(int index) {
+        return entries[(head + index) % entries.length];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+}
@@ -6,32 +6,43 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.content.ActivityNotFoundException;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.text.InputType;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.LayoutInflater;
 import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.CheckBox;
 import android.widget.EditText;
-import android.widget.ScrollView;
+import android.widget.ImageView;
+import android.widget.ListView;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.google.zxing.WriterException;
 import com.google.zxing.activity.CaptureActivity;
+import com.google.zxing.decoding.Intents;
+import com.google.zxing.encoding.QRCodeCache;
 import com.vone.qrcode.R;
 import com.vone.vmq.util.Constant;
 
@@ -40,7 +51,9 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -52,11 +65,26 @@ public class MainActivity extends AppCompatActivity {
     private final Handler handler = new Handler(Looper.getMainLooper());
     private TextView txthost;
     private TextView txtkey;
-    private TextView logTextView;
-    private ScrollView logScrollView;
-    private LogBroadcastReceiver logBroadcastReceiver;
-
-    private boolean isOk = false;
+    private ListView logListView;
+    // 日志只保留最近 LOG_CAPACITY 条，长时间运行内存也不会增长
+    private static final int LOG_CAPACITY = 500;
+    private final LogRingBuffer logBuffer = new LogRingBuffer(LOG_CAPACITY);
+    private LogListAdapter logAdapter;
+    // 任意线程写入的待显示日志，每帧最多合并刷新一次
+    private final List<String> pendingLogs = new ArrayList<>();
+    private boolean logFlushScheduled = false;
+
+    // 收款码图片缓存，在几个金额之间切换时不用重新生成
+    private static final int PAY_CODE_CACHE_BYTES = 4 * 1024 * 1024;
+    private final QRCodeCache payCodeCache = new QRCodeCache(PAY_CODE_CACHE_BYTES);
+
+    // 长按“扫码配置”时在扫码界面显示扫码统计，用来在具体的手机上调扫码参数
+    private boolean showScanTelemetry = false;
+
+    // 启动时读到了保存的配置；本次运行中重新配置后以检查结果为准，见 isConfigReady()
+    private boolean hasSavedConfig = false;
+    // 扫码/手动配置后在后台检查新配置，最近一次的结果原子地保存在里面
+    private final ConfigOnboarding onboarding = new ConfigOnboarding(Utils.getOkHttpClient());
     private static String TAG = "MainActivity";
 
     private static String host;
@@ -70,8 +98,17 @@ public class MainActivity extends AppCompatActivity {
 
         txthost = (TextView) findViewById(R.id.txt_host);
         txtkey = (TextView) findViewById(R.id.txt_key);
-        logTextView = (TextView) findViewById(R.id.log_text_view);
-        logScrollView = (ScrollView) findViewById(R.id.log_scroll_view);
+        logListView = (ListView) findViewById(R.id.log_list_view);
+        logAdapter = new LogListAdapter(logBuffer);
+        logListView.setAdapter(logAdapter);
+        findViewById(R.id.btn_qrcode).setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                showScanTelemetry = true;
+                startQrCode(v);
+                return true;
+            }
+        });
 
         //检测通知使用权是否启用
         if (!isNotificationListenersEnabled()) {
@@ -92,54 +129,66 @@ public class MainActivity extends AppCompatActivity {
         if (host != null && key != null && host != "" && key != "") {
             txthost.setText(" 通知地址：" + host);
             txtkey.setText(" 通讯密钥：" + key);
-            isOk = true;
+            hasSavedConfig = true;
         }
         Toast.makeText(MainActivity.this, "v免签开源免费免签系统 v2.1", Toast.LENGTH_SHORT).show();
+    }
 
-        // 注册广播接收器
-        logBroadcastReceiver = new LogBroadcastReceiver();
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(NeNotificationService2.ACTION_LOG_UPDATE);
-        registerReceiver(logBroadcastReceiver, intentFilter);
+    // 只在界面可见时订阅日志，不可见时服务端投递为空操作
+    @Override
+    protected void onStart() {
+        super.onStart();
+        EventBus.subscribe(logSubscriber);
     }
 
-    // 在Activity销毁时取消注册
     @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (logBroadcastReceiver != null) {
-            unregisterReceiver(logBroadcastReceiver);
-        }
+    protected void onStop() {
+        EventBus.unsubscribe(logSubscriber);
+        super.onStop();
     }
 
     private void appendLog(final String message) {
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                logTextView.append("\n" + message);
-                // 自动滚动到底部
-                logScrollView.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        logScrollView.fullScroll(View.FOCUS_DOWN);
-                    }
-                });
+        synchronized (pendingLogs) {
+            pendingLogs.add(message);
+            if (logFlushScheduled) {
+                return;
             }
-        });
+            logFlushScheduled = true;
+        }
+        handler.post(scheduleLogFlush);
     }
 
-    // 广播接收器，用于接收来自Service的日志
-    private class LogBroadcastReceiver extends BroadcastReceiver {
+    private final Runnable scheduleLogFlush = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent != null && NeNotificationService2.ACTION_LOG_UPDATE.equals(intent.getAction())) {
-                String logMessage = intent.getStringExtra("log_message");
-                if (logMessage != null) {
-                    appendLog(logMessage);
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(logFlushCallback);
+        }
+    };
+
+    // 在下一帧把积累的日志一次性写入环形缓冲区并刷新列表
+    private final Choreographer.FrameCallback logFlushCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            synchronized (pendingLogs) {
+                for (int i = 0; i < pendingLogs.size(); i++) {
+                    logBuffer.add(pendingLogs.get(i));
                 }
+                pendingLogs.clear();
+                logFlushScheduled = false;
             }
+            logAdapter.notifyDataSetChanged();
         }
-    }
+    };
+
+    // 接收来自Service的日志，回调在发布者线程，appendLog 内部切换到UI线程
+    private final EventBus.Subscriber logSubscriber = new EventBus.Subscriber() {
+        @Override
+        public void onEvent(EventBus.Event event) {
+            if (event.message != null) {
+                appendLog(event.message);
+            }
+        }
+    };
 
     //扫码配置
     public void startQrCode(View v) {
@@ -157,6 +206,10 @@ public class MainActivity extends AppCompatActivity {
         }
         // 二维码扫码
         Intent intent = new Intent(MainActivity.this, CaptureActivity.class);
+        // 配置二维码只可能是 QR 码，不需要跑一维码和 DataMatrix 的识别
+        intent.putExtra(Intents.Scan.MODE, Intents.Scan.QR_CODE_MODE);
+        intent.putExtra(Intents.Scan.SHOW_TELEMETRY, showScanTelemetry);
+        showScanTelemetry = false;
         startActivityForResult(intent, Constant.REQ_QR_CODE);
     }
 
@@ -171,61 +224,74 @@ public class MainActivity extends AppCompatActivity {
             public void onClick(DialogInterface dialog, int which) {
                 String scanResult = inputServer.getText().toString();
 
-                String[] tmp = scanResult.split("/");
-                if (tmp.length != 2) {
-                    Toast.makeText(MainActivity.this, "数据错误，请您输入网站上显示的配置数据!", Toast.LENGTH_SHORT).show();
+                String[] config = ConfigOnboarding.parse(scanResult);
+                if (config != null && config[0].indexOf("localhost") >= 0) {
+                    Toast.makeText(MainActivity.this, "配置信息错误，本机调试请访问 本机局域网IP:8080(如192.168.1.101:8080) 获取配置信息进行配置!", Toast.LENGTH_LONG).show();
                     return;
                 }
+                applyConfig(config, "数据错误，请您输入网站上显示的配置数据!");
+            }
+        });
+        builder.show();
 
-                String t = String.valueOf(new Date().getTime());
-                String sign = md5(t + tmp[1]);
-
-                Request request = new Request.Builder().url("http://" + tmp[0] + "/api/monitor/heart?t=" + t + "&sign=" + sign).method("GET", null).build();
-                Call call = Utils.getOkHttpClient().newCall(request);
-                call.enqueue(new Callback() {
-                    @Override
-                    public void onFailure(Call call, IOException e) {
-
-                    }
+    }
 
+    /**
+     * 扫码或手动输入得到配置后：马上显示并异步保存，同时在后台解析域名、连接服务端并发送签名心跳，
+     * 检查结果写到日志里
+     *
+     * @param config      {@link ConfigOnboarding#parse} 的结果
+     * @param formatError 格式不对时的提示
+     */
+    private void applyConfig(String[] config, String formatError) {
+        if (config == null) {
+            Toast.makeText(MainActivity.this, formatError, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        //将扫描出的信息显示出来
+        host = config[0];
+        key = config[1];
+        txthost.setText(" 通知地址：" + host);
+        txtkey.setText(" 通讯密钥：" + key);
+
+        SharedPreferences.Editor editor = getSharedPreferences("vone", MODE_PRIVATE).edit();
+        editor.putString("host", host);
+        editor.putString("key", key);
+        editor.apply();
+
+        appendLog("正在检查配置: " + host);
+        onboarding.start(host, key, new ConfigOnboarding.Listener() {
+            @Override
+            public void onResult(final ConfigOnboarding.Result result) {
+                Log.d(TAG, result.describe());
+                appendLog(result.describe());
+                handler.post(new Runnable() {
                     @Override
-                    public void onResponse(Call call, Response response) throws IOException {
-                        try {
-                            String responseBody = response.body().string();
-                            Log.d(TAG, "配置测试心跳返回: " + responseBody);
-                            Log.d(TAG, "配置测试HTTP状态码: " + response.code());
-                        } catch (Exception e) {
-                            Log.e(TAG, "配置测试心跳异常: " + e.getMessage(), e);
-                            e.printStackTrace();
-                        }
-                        isOk = true;
+                    public void run() {
+                        Toast.makeText(MainActivity.this, result.ready ? "配置成功!" : "配置检查失败，请检查配置是否正确!", Toast.LENGTH_SHORT).show();
                     }
                 });
-                if (tmp[0].indexOf("localhost") >= 0) {
-                    Toast.makeText(MainActivity.this, "配置信息错误，本机调试请访问 本机局域网IP:8080(如192.168.1.101:8080) 获取配置信息进行配置!", Toast.LENGTH_LONG).show();
-
-                    return;
-                }
-                //将扫描出的信息显示出来
-                txthost.setText(" 通知地址：" + tmp[0]);
-                txtkey.setText(" 通讯密钥：" + tmp[1]);
-                host = tmp[0];
-                key = tmp[1];
-
-                SharedPreferences.Editor editor = getSharedPreferences("vone", MODE_PRIVATE).edit();
-                editor.putString("host", host);
-                editor.putString("key", key);
-                editor.commit();
-
             }
         });
-        builder.show();
+    }
 
+    /**
+     * 当前配置能否使用：本次运行中重新配置过时看最近一次检查，服务端有应答就算可用
+     * （签名不对在日志里提示）；没重新配置过时看启动时是否读到了保存的配置
+     */
+    private boolean isConfigReady() {
+        ConfigOnboarding.Result result = onboarding.getResult();
+        return result == null ? hasSavedConfig : result.isReachable();
     }
 
     //检测心跳
     public void doStart(View view) {
-        if (!isOk) {
+        ConfigOnboarding.Result check = onboarding.getResult();
+        if (check != null && check.isChecking()) {
+            Toast.makeText(MainActivity.this, "正在检查配置，请稍候!", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (!isConfigReady()) {
             Toast.makeText(MainActivity.this, "请您先配置!", Toast.LENGTH_SHORT).show();
             return;
         }
@@ -309,7 +375,221 @@ public class MainActivity extends AppCompatActivity {
     }
 
     public void clearLogs(View view) {
-        logTextView.setText("日志输出:");
+        synchronized (pendingLogs) {
+            pendingLogs.clear();
+        }
+        logBuffer.clear();
+        logAdapter.notifyDataSetChanged();
+    }
+
+    //查询历史通知与推送记录
+    public void queryHistory(View v) {
+        final View form = LayoutInflater.from(this).inflate(R.layout.dialog_history_query, null);
+        new AlertDialog.Builder(this).setTitle("查询记录").setView(form)
+                .setNegativeButton("取消", null)
+                .setPositiveButton("查询", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        final String keyword = ((EditText) form.findViewById(R.id.history_keyword)).getText().toString().trim();
+                        final String pkg = ((EditText) form.findViewById(R.id.history_pkg)).getText().toString().trim();
+                        final Double minAmount = parseAmount((EditText) form.findViewById(R.id.history_min_amount));
+                        final Double maxAmount = parseAmount((EditText) form.findViewById(R.id.history_max_amount));
+                        // 下拉框第 0 项为全部状态
+                        final int status = ((Spinner) form.findViewById(R.id.history_status)).getSelectedItemPosition() - 1;
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                long start = SystemClock.elapsedRealtime();
+                                List<HistoryStore.Record> records;
+                                try {
+                                    records = HistoryStore.get(MainActivity.this)
+                                            .query(keyword, pkg, minAmount, maxAmount, status);
+                                } catch (Exception e) {
+                                    Log.e(TAG, "查询记录失败", e);
+                                    records = new ArrayList<>();
+                                }
+                                final long cost = SystemClock.elapsedRealtime() - start;
+                                final List<HistoryStore.Record> result = records;
+                                handler.post(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        showHistory(result, cost);
+                                    }
+                                });
+                            }
+                        }).start();
+                    }
+                }).show();
+    }
+
+    //设置除收款应用外，还要记录哪些应用的通知（只记录，不匹配金额）
+    public void setCaptureFilter(View v) {
+        final SharedPreferences prefs = getSharedPreferences("vone", MODE_PRIVATE);
+        final View form = LayoutInflater.from(this).inflate(R.layout.dialog_capture_filter, null);
+        final EditText packages = (EditText) form.findViewById(R.id.capture_packages);
+        final CheckBox all = (CheckBox) form.findViewById(R.id.capture_all);
+        packages.setText(prefs.getString(NotificationFilter.PREF_CAPTURE_PACKAGES, ""));
+        all.setChecked(prefs.getBoolean(NotificationFilter.PREF_CAPTURE_ALL, false));
+        new AlertDialog.Builder(this).setTitle("记录其他应用").setView(form)
+                .setNegativeButton("取消", null)
+                .setPositiveButton("保存", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // 监听服务监听了这两项配置，保存后马上生效
+                        prefs.edit()
+                                .putString(NotificationFilter.PREF_CAPTURE_PACKAGES, packages.getText().toString().trim())
+                                .putBoolean(NotificationFilter.PREF_CAPTURE_ALL, all.isChecked())
+                                .apply();
+                        appendLog(all.isChecked() ? "已设置记录所有应用的通知" : "已设置额外记录的应用: " + packages.getText().toString().trim());
+                    }
+                }).show();
+    }
+
+    private static Double parseAmount(EditText editText) {
+        String text = editText.getText().toString().trim();
+        if (text.length() == 0) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void showHistory(List<HistoryStore.Record> records, long cost) {
+        if (isFinishing()) {
+            return;
+        }
+        String[] statusNames = getResources().getStringArray(R.array.history_status);
+        String[] items = new String[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            HistoryStore.Record record = records.get(i);
+            StringBuilder item = new StringBuilder();
+            item.append("[").append(Utils.formatTime(new Date(record.time))).append("][")
+                    .append(record.pkg).append("]\n")
+                    .append(record.title).append("\n").append(record.body);
+            if (record.amount != null) {
+                item.append("\n金额：").append(record.amount);
+            }
+            item.append("  ").append(statusNames[record.status + 1]);
+            items[i] = item.toString();
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("共 " + records.size() + " 条，耗时 " + cost + "ms")
+                .setItems(items, null)
+                .setPositiveButton("确认", null)
+                .show();
+    }
+
+    //显示收款码，在收银台按金额切换
+    public void showPayCodes(View v) {
+        final List<PaymentCodeStore.Code> codes = PaymentCodeStore.load(this);
+        final View form = LayoutInflater.from(this).inflate(R.layout.dialog_pay_code, null);
+        final ImageView image = (ImageView) form.findViewById(R.id.pay_code_image);
+        final TextView label = (TextView) form.findViewById(R.id.pay_code_label);
+        ListView list = (ListView) form.findViewById(R.id.pay_code_list);
+        // 二维码边长取屏幕短边的 70%，生成时再对齐到模块的整数倍
+        final int size = Math.min(getResources().getDisplayMetrics().widthPixels,
+                getResources().getDisplayMetrics().heightPixels) * 7 / 10;
+
+        String[] labels = new String[codes.size()];
+        for (int i = 0; i < codes.size(); i++) {
+            labels[i] = codes.get(i).label();
+        }
+        list.setAdapter(new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, labels));
+        list.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                showPayCode(codes.get(position), size, image, label);
+            }
+        });
+
+        final AlertDialog dialog = new AlertDialog.Builder(this).setTitle("收款码").setView(form)
+                .setNegativeButton("关闭", null)
+                .setPositiveButton("添加", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        scanPayCode();
+                    }
+                }).show();
+        list.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, final int position, long id) {
+                new AlertDialog.Builder(MainActivity.this)
+                        .setMessage("删除收款码 " + codes.get(position).label() + "？")
+                        .setNegativeButton("取消", null)
+                        .setPositiveButton("删除", new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface d, int which) {
+                                PaymentCodeStore.remove(MainActivity.this, codes.get(position));
+                                dialog.dismiss();
+                                showPayCodes(null);
+                            }
+                        }).show();
+                return true;
+            }
+        });
+
+        if (!codes.isEmpty()) {
+            showPayCode(codes.get(0), size, image, label);
+            // 后台先把其余收款码生成好放进缓存，切换时直接显示
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (PaymentCodeStore.Code code : codes) {
+                        try {
+                            payCodeCache.get(code.content, size, Bitmap.Config.ALPHA_8);
+                        } catch (WriterException e) {
+                            Log.w(TAG, "生成收款码失败: " + code.label(), e);
+                        }
+                    }
+                }
+            }).start();
+        }
+    }
+
+    private void showPayCode(PaymentCodeStore.Code code, int size, ImageView image, TextView label) {
+        try {
+            image.setImageBitmap(payCodeCache.get(code.content, size, Bitmap.Config.ALPHA_8));
+            label.setText(code.label());
+        } catch (WriterException e) {
+            Log.e(TAG, "生成收款码失败", e);
+            image.setImageDrawable(null);
+            label.setText("收款码内容过长，无法生成");
+        }
+    }
+
+    //扫描微信/支付宝的收款码并保存
+    private void scanPayCode() {
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(MainActivity.this, new String[]{Manifest.permission.CAMERA}, Constant.REQ_PERM_CAMERA_PAY_CODE);
+            return;
+        }
+        Intent intent = new Intent(MainActivity.this, CaptureActivity.class);
+        intent.putExtra(Intents.Scan.MODE, Intents.Scan.QR_CODE_MODE);
+        // 收款码贴纸常在光线较暗的柜台上扫，单帧噪点太多识别不了时取多帧平均再识别
+        intent.putExtra(Intents.Scan.AVERAGE_FRAMES, 8);
+        startActivityForResult(intent, Constant.REQ_PAY_CODE);
+    }
+
+    private void savePayCode(final String content) {
+        final EditText inputAmount = new EditText(this);
+        inputAmount.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        inputAmount.setHint("固定金额，留空为任意金额");
+        new AlertDialog.Builder(this).setTitle(PaymentCodeStore.channel(content) + "收款码金额")
+                .setView(inputAmount)
+                .setNegativeButton("取消", null)
+                .setPositiveButton("保存", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (!PaymentCodeStore.add(MainActivity.this, inputAmount.getText().toString(), content)) {
+                            Toast.makeText(MainActivity.this, "金额格式错误", Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                        showPayCodes(null);
+                    }
+                }).show();
     }
 
     public void checkPush(View v) {
@@ -426,52 +706,21 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
+        //收款码扫描结果
+        if (requestCode == Constant.REQ_PAY_CODE && resultCode == RESULT_OK) {
+            String content = data.getExtras().getString(Constant.INTENT_EXTRA_KEY_QR_SCAN);
+            if (!TextUtils.isEmpty(content)) {
+                savePayCode(content);
+            }
+            return;
+        }
         //扫描结果回调
         if (requestCode == Constant.REQ_QR_CODE && resultCode == RESULT_OK) {
             Bundle bundle = data.getExtras();
             String scanResult = bundle.getString(Constant.INTENT_EXTRA_KEY_QR_SCAN);
 
-            String[] tmp = scanResult.split("/");
-            if (tmp.length != 2) {
-                Toast.makeText(MainActivity.this, "二维码错误，请您扫描网站上显示的二维码!", Toast.LENGTH_SHORT).show();
-                return;
-            }
-
-            String t = String.valueOf(new Date().getTime());
-            String sign = md5(t + tmp[1]);
-
-            Request request = new Request.Builder().url("http://" + tmp[0] + "/api/monitor/heart?t=" + t + "&sign=" + sign).method("GET", null).build();
-            Call call = Utils.getOkHttpClient().newCall(request);
-            call.enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-
-                }
-
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    try {
-                        String responseBody = response.body().string();
-                        Log.d(TAG, "扫码配置心跳返回: " + responseBody);
-                        Log.d(TAG, "扫码配置HTTP状态码: " + response.code());
-                    } catch (Exception e) {
-                        Log.e(TAG, "扫码配置心跳异常: " + e.getMessage(), e);
-                        e.printStackTrace();
-                    }
-                    isOk = true;
-                }
-            });
-
-            //将扫描出的信息显示出来
-            txthost.setText(" 通知地址：" + tmp[0]);
-            txtkey.setText(" 通讯密钥：" + tmp[1]);
-            host = tmp[0];
-            key = tmp[1];
-
-            SharedPreferences.Editor editor = getSharedPreferences("vone", MODE_PRIVATE).edit();
-            editor.putString("host", host);
-            editor.putString("key", key);
-            editor.commit();
+            // 一拿到扫码结果就开始检查，不等回到界面
+            applyConfig(ConfigOnboarding.parse(scanResult), "二维码错误，请您扫描网站上显示的二维码!");
         }
     }
 
@@ -489,6 +738,13 @@ public class MainActivity extends AppCompatActivity {
                     Toast.makeText(MainActivity.this, "请至权限中心打开本应用的相机访问权限", Toast.LENGTH_LONG).show();
                 }
                 break;
+            case Constant.REQ_PERM_CAMERA_PAY_CODE:
+                if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                    scanPayCode();
+                } else {
+                    Toast.makeText(MainActivity.this, "请至权限中心打开本应用的相机访问权限", Toast.LENGTH_LONG).show();
+                }
+                break;
             case Constant.REQ_PERM_EXTERNAL_STORAGE:
                 // 文件读写权限申请
                 if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
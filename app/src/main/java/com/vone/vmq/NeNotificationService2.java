@@ -13,7 +13,6 @@ import android.os.PowerManager;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
 import android.support.v4.app.NotificationCompat;
-import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -23,11 +22,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -39,13 +35,13 @@ import okhttp3.Response;
 
 public class NeNotificationService2 extends NotificationListenerService {
     private static String TAG = "NeNotificationService2";
-    public static final String ACTION_LOG_UPDATE = "com.vone.vmq.LOG_UPDATE";
     private final Handler handler = new Handler(Looper.getMainLooper());
     private String host = "";
     private String key = "";
     private Thread newThread = null;
     private PowerManager.WakeLock mWakeLock = null;
     public static boolean isRunning;
+    private final PushClient pushClient = new PushClient(Utils.getOkHttpClient());
 
     //申请设备电源锁
     @SuppressLint("InvalidWakeLockTag")
@@ -93,10 +89,7 @@ public class NeNotificationService2 extends NotificationListenerService {
                     key = read.getString("key", "");
 
                     //这里写入子线程需要做的工作
-                    String t = String.valueOf(new Date().getTime());
-                    String sign = md5(t + key);
-
-                    final String url = "http://" + host + "/api/monitor/heart?t=" + t + "&sign=" + sign;
+                    final String url = PushClient.heartUrl(host, key, System.currentTimeMillis());
                     Request request = new Request.Builder().url(url).method("GET", null).build();
                     Call call = Utils.getOkHttpClient().newCall(request);
                     call.enqueue(new Callback() {
@@ -104,6 +97,7 @@ public class NeNotificationService2 extends NotificationListenerService {
                         public void onFailure(Call call, IOException e) {
                             // final String error = e.getMessage();
                             // Toast.makeText(getApplicationContext(), "心跳状态错误，请检查配置是否正确!" + error, Toast.LENGTH_LONG).show();
+                            postEvent(EventBus.TYPE_HEARTBEAT_RESULT, "后台心跳失败: " + e.getMessage());
                             foregroundHeart(url);
                         }
 
@@ -121,9 +115,11 @@ public class NeNotificationService2 extends NotificationListenerService {
                             }
                             if (!response.isSuccessful()) {
                                 Log.d(TAG, "HTTP请求不成功，触发前台心跳");
+                                postEvent(EventBus.TYPE_HEARTBEAT_RESULT, "后台心跳失败，HTTP状态码: " + response.code());
                                 foregroundHeart(url);
                             } else {
                                 Log.d(TAG, "心跳服务请求成功");
+                                postEvent(EventBus.TYPE_HEARTBEAT_RESULT, "后台心跳成功");
                             }
                         }
                     });
@@ -142,8 +138,23 @@ public class NeNotificationService2 extends NotificationListenerService {
     //当收到一条消息的时候回调，sbn是收到的消息
     @Override
     public void onNotificationPosted(StatusBarNotification sbn) {
+        // 第一步先按包名过滤，无关应用的通知直接返回
+        String pkg = sbn.getPackageName();
+        if (!NotificationFilter.accept(pkg)) {
+            return;
+        }
         Log.d(TAG, "接受到通知消息");
+        String historyKey = HistoryStore.keyOf(pkg, sbn.getId(), sbn.getPostTime());
+        // 历史记录不受文件日志的条件限制，常驻通知里的收款也要有记录，后面才能更新金额和推送状态
+        Bundle historyExtras = sbn.getNotification().extras;
+        HistoryStore.get(this).recordNotification(historyKey, pkg,
+                historyExtras == null ? null : historyExtras.getCharSequence(Notification.EXTRA_TITLE),
+                historyExtras == null ? null : historyExtras.getCharSequence(Notification.EXTRA_TEXT));
         writeNotifyToFile(sbn);
+        // 用户额外选择记录的应用只记录，不匹配金额
+        if (!NotificationFilter.isMonitored(pkg)) {
+            return;
+        }
         // 微信支付部分通知，会调用两次，导致统计不准确
         if ((sbn.getNotification().flags & Notification.FLAG_GROUP_SUMMARY) != 0) {
             Log.d(TAG, "群组摘要通知，忽略");
@@ -154,7 +165,6 @@ public class NeNotificationService2 extends NotificationListenerService {
         key = read.getString("key", "");
 
         Notification notification = sbn.getNotification();
-        String pkg = sbn.getPackageName();
         if (notification != null) {
             Bundle extras = notification.extras;
             if (extras != null) {
@@ -200,9 +210,11 @@ public class NeNotificationService2 extends NotificationListenerService {
                                         Toast.makeText(getApplicationContext(), "匹配成功：支付宝到账" + finalMoney + "元", Toast.LENGTH_LONG).show();
                                     }
                                 });
-                                sendBroadcastLog("匹配成功：支付宝到账 " + money + "元");
-                                try{
-                                    appPush(2, Double.parseDouble(money));
+                                postEvent(EventBus.TYPE_PAYMENT_MATCHED, "匹配成功：支付宝到账 " + money + "元");
+                                try {
+                                    double price = Double.parseDouble(money);
+                                    HistoryStore.get(this).recordMatched(historyKey, price);
+                                    appPush(2, price, historyKey);
                                 } catch (Exception e) {
                                     Log.d(TAG, "app push 错误！！！");
                                 }
@@ -240,9 +252,11 @@ public class NeNotificationService2 extends NotificationListenerService {
                                         Toast.makeText(getApplicationContext(), "匹配成功：微信到账" + finalMoney + "元", Toast.LENGTH_LONG).show();
                                     }
                                 });
-                                sendBroadcastLog("匹配成功：微信到账 " + money + "元");
+                                postEvent(EventBus.TYPE_PAYMENT_MATCHED, "匹配成功：微信到账 " + money + "元");
                                 try {
-                                    appPush(1, Double.parseDouble(money));
+                                    double price = Double.parseDouble(money);
+                                    HistoryStore.get(this).recordMatched(historyKey, price);
+                                    appPush(1, price, historyKey);
                                 } catch (Exception e) {
                                     Log.d(TAG, "app push 错误！！！");
                                 }
@@ -279,6 +293,9 @@ public class NeNotificationService2 extends NotificationListenerService {
     @Override
     public void onListenerConnected() {
         isRunning = true;
+        SharedPreferences read = getSharedPreferences("vone", MODE_PRIVATE);
+        loadCaptureFilter(read);
+        read.registerOnSharedPreferenceChangeListener(filterChangeListener);
         //开启心跳线程
         initAppHeart();
 
@@ -293,12 +310,33 @@ public class NeNotificationService2 extends NotificationListenerService {
     public void onListenerDisconnected() {
         super.onListenerDisconnected();
         isRunning = false;
+        getSharedPreferences("vone", MODE_PRIVATE)
+                .unregisterOnSharedPreferenceChangeListener(filterChangeListener);
         if (newThread != null) {
             newThread.interrupt();
         }
         newThread = null;
     }
 
+    /**
+     * 读取额外记录的应用：capture_packages 逗号分隔的包名，capture_all 记录所有应用
+     */
+    private static void loadCaptureFilter(SharedPreferences read) {
+        NotificationFilter.setOptIn(read.getString(NotificationFilter.PREF_CAPTURE_PACKAGES, ""),
+                read.getBoolean(NotificationFilter.PREF_CAPTURE_ALL, false));
+    }
+
+    private final SharedPreferences.OnSharedPreferenceChangeListener filterChangeListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (NotificationFilter.PREF_CAPTURE_PACKAGES.equals(key)
+                            || NotificationFilter.PREF_CAPTURE_ALL.equals(key)) {
+                        loadCaptureFilter(sharedPreferences);
+                    }
+                }
+            };
+
     private void writeNotifyToFile(StatusBarNotification sbn) {
         if (!sbn.isClearable()) {
             return;
@@ -329,38 +367,32 @@ public class NeNotificationService2 extends NotificationListenerService {
     /**
      * 通知服务器收款到账
      */
-    public void appPush(int type, double price) {
+    public void appPush(int type, double price, final String historyKey) {
         acquireWakeLock(getApplicationContext());
         SharedPreferences read = getSharedPreferences("vone", MODE_PRIVATE);
         host = read.getString("host", "");
         key = read.getString("key", "");
 
-        String t = String.valueOf(new Date().getTime());
-
-        String sign = md5(type + "" + price + t + key);
-        final String url = "http://" + host + "/api/monitor/push?t=" + t + "&type=" + type + "&price=" + price + "&sign=" + sign;
-
-        sendBroadcastLog("准备推送订单: " + url);
-        Request request = new Request.Builder().url(url).get().build();
-        Call call = Utils.getOkHttpClient().newCall(request);
-        call.enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                sendBroadcastLog("推送失败: " + e.getMessage());
-                foregroundPost(url + "&force_push=true");
-                releaseWakeLock();
-            }
-
+        String url = PushClient.pushUrl(host, key, type, price, System.currentTimeMillis());
+        if (EventBus.hasSubscribers()) {
+            postEvent(EventBus.TYPE_LOG, "准备推送订单: " + url);
+        }
+        // 这里只请求一次，失败后交给前台服务强制重试
+        pushClient.push(url, new PushClient.PushListener() {
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    sendBroadcastLog("推送成功，服务器返回: " + response.body().string());
+            public void onResult(boolean success, String url, String body, IOException error) {
+                if (success) {
+                    HistoryStore.get(NeNotificationService2.this).recordPushResult(historyKey, true);
+                    postEvent(EventBus.TYPE_PUSH_RESULT, "推送成功，服务器返回: " + body);
                 } else {
-                    sendBroadcastLog("推送失败，服务器返回: " + response.body().string());
-                    foregroundPost(url + "&force_push=true");
+                    postEvent(EventBus.TYPE_PUSH_RESULT, error != null
+                            ? "推送失败: " + error.getMessage() : "推送失败，服务器返回: " + body);
+                    // 记录保持“推送中”，由前台服务重试完后写入最终结果
+                    if (!foregroundPost(PushClient.forcePushUrl(url), historyKey)) {
+                        HistoryStore.get(NeNotificationService2.this).recordPushResult(historyKey, false);
+                    }
                 }
                 releaseWakeLock();
-
             }
         });
     }
@@ -388,14 +420,18 @@ public class NeNotificationService2 extends NotificationListenerService {
 
     /**
      * 当通知失败的时候，前台强制通知
+     *
+     * @param historyKey 重试结束后由前台服务更新这条历史记录的推送状态
+     * @return 监听服务没在运行、不会重试时返回 false
      */
-    private void foregroundPost(String url) {
+    private boolean foregroundPost(String url, String historyKey) {
         final Context context = NeNotificationService2.this;
         if (isRunning) {
             final JSONObject extraJson = new JSONObject();
             try {
                 extraJson.put("url", url);
-                extraJson.put("try_count", 5);
+                extraJson.put("try_count", PushClient.FORCE_PUSH_TRIES);
+                extraJson.put("history_key", historyKey);
             } catch (JSONException jsonException) {
                 jsonException.printStackTrace();
             }
@@ -407,7 +443,9 @@ public class NeNotificationService2 extends NotificationListenerService {
                             context.getString(R.string.app_is_post), extraJson.toString());
                 }
             });
+            return true;
         }
+        return false;
     }
 
     /**
@@ -467,32 +505,14 @@ public class NeNotificationService2 extends NotificationListenerService {
     }
 
     public static String md5(String string) {
-        if (TextUtils.isEmpty(string)) {
-            return "";
-        }
-        MessageDigest md5 = null;
-        try {
-            md5 = MessageDigest.getInstance("MD5");
-            byte[] bytes = md5.digest(string.getBytes());
-            StringBuilder result = new StringBuilder();
-            for (byte b : bytes) {
-                String temp = Integer.toHexString(b & 0xff);
-                if (temp.length() == 1) {
-                    temp = "0" + temp;
-                }
-                result.append(temp);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        return "";
+        return PushClient.md5(string);
     }
 
-    private void sendBroadcastLog(String logMessage) {
-        Intent intent = new Intent(ACTION_LOG_UPDATE);
-        intent.putExtra("log_message", logMessage);
-        sendBroadcast(intent);
+    /**
+     * 投递日志到界面，界面不可见时没有订阅者，直接丢弃
+     */
+    private static void postEvent(int type, String logMessage) {
+        EventBus.post(type, logMessage);
     }
 
 }
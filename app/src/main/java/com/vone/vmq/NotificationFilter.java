@@ -0,0 +1,107 @@
+package com.vone.vmq;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 通知预过滤：在 onNotificationPosted 的最开始按包名判断是否需要处理
+ * <p>
+ * 监听的收款应用包名固定，类加载时为它们计算一个无冲突（完美哈希）的表，
+ * 查询只需要一次取模定位加一次字符串比较；String 的 hashCode 有缓存，
+ * 群聊消息多的手机上，无关应用的通知不再读取配置、提取 extras 和打印日志。
+ */
+final class NotificationFilter {
+
+    static final String PKG_ALIPAY = "com.eg.android.AlipayGphone";
+    static final String PKG_WECHAT = "com.tencent.mm";
+    static final String PKG_WEWORK = "com.tencent.wework";
+    static final String PKG_SELF = "com.vone.qrcode";
+
+    // 额外记录的应用保存在 SharedPreferences("vone") 中，由主界面设置、监听服务读取
+    static final String PREF_CAPTURE_PACKAGES = "capture_packages";
+    static final String PREF_CAPTURE_ALL = "capture_all";
+
+    private static final String[] MONITORED = {PKG_ALIPAY, PKG_WECHAT, PKG_WEWORK, PKG_SELF};
+
+    private static final String[] table;
+    private static final int mask;
+    private static final int seed;
+
+    // 用户额外选择需要记录的包名，只记录不匹配金额
+    private static volatile Set<String> optInPackages = Collections.emptySet();
+    // 是否记录所有应用的通知（旧版行为）
+    private static volatile boolean captureAll = false;
+
+    static {
+        int size = Integer.highestOneBit(MONITORED.length) << 1;
+        int foundSeed = -1;
+        while (foundSeed < 0) {
+            for (int s = 0; s < 1024 && foundSeed < 0; s++) {
+                boolean[] used = new boolean[size];
+                boolean ok = true;
+                for (String pkg : MONITORED) {
+                    int index = index(pkg.hashCode(), s, size - 1);
+                    if (used[index]) {
+                        ok = false;
+                        break;
+                    }
+                    used[index] = true;
+                }
+                if (ok) {
+                    foundSeed = s;
+                }
+            }
+            if (foundSeed < 0) {
+                size <<= 1;
+            }
+        }
+        seed = foundSeed;
+        mask = size - 1;
+        table = new String[size];
+        for (String pkg : MONITORED) {
+            table[index(pkg.hashCode(), seed, mask)] = pkg;
+        }
+    }
+
+    private NotificationFilter() {
+    }
+
+    private static int index(int hash, int seed, int mask) {
+        int h = (hash ^ seed) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 是否是需要匹配收款金额的应用
+     */
+    static boolean isMonitored(String pkg) {
+        if (pkg == null) return false;
+        String candidate = table[index(pkg.hashCode(), seed, mask)];
+        return candidate != null && candidate.equals(pkg);
+    }
+
+    /**
+     * 是否需要进入完整的记录流程：监听的应用，或者用户明确选择记录的应用
+     */
+    static boolean accept(String pkg) {
+        return isMonitored(pkg) || captureAll || (pkg != null && optInPackages.contains(pkg));
+    }
+
+    /**
+     * @param packages 逗号分隔的包名
+     */
+    static void setOptIn(String packages, boolean all) {
+        Set<String> set = new HashSet<>();
+        if (packages != null) {
+            for (String pkg : packages.split(",")) {
+                pkg = pkg.trim();
+                if (pkg.length() > 0) {
+                    set.add(pkg);
+                }
+            }
+        }
+        optInPackages = set;
+        captureAll = all;
+    }
+}
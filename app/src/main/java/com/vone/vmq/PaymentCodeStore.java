@@ -0,0 +1,150 @@
+package com.vone.vmq;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 收款码，保存在 SharedPreferences 中（JSON 数组）
+ * <p>每条记录是扫描微信/支付宝收款码得到的内容和对应的固定金额，金额为空表示不限金额的收款码。
+ * 在收银台直接在本机上按金额显示，由 {@link com.google.zxing.encoding.QRCodeCache} 生成图片</p>
+ */
+class PaymentCodeStore {
+    private static final String TAG = "PaymentCodeStore";
+    private static final String KEY = "pay_codes";
+
+    static final class Code {
+        // 两位小数的金额，null 表示任意金额
+        final String amount;
+        final String content;
+
+        Code(String amount, String content) {
+            this.amount = amount;
+            this.content = content;
+        }
+
+        String label() {
+            return channel(content) + "  " + (amount == null ? "任意金额" : amount + " 元");
+        }
+    }
+
+    /**
+     * 读取保存的收款码，任意金额的排在前面，其余按金额从小到大
+     */
+    static List<Code> load(Context context) {
+        List<Code> codes = new ArrayList<>();
+        String json = prefs(context).getString(KEY, "");
+        if (json.length() == 0) {
+            return codes;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject item = array.getJSONObject(i);
+                String amount = item.isNull("amount") ? null : item.getString("amount");
+                codes.add(new Code(amount, item.getString("content")));
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "收款码数据损坏", e);
+        }
+        return codes;
+    }
+
+    /**
+     * 保存一个收款码，同一渠道同一金额的旧收款码会被替换
+     *
+     * @param amount 金额，空字符串或 null 表示任意金额
+     * @return 金额格式不对时返回 false
+     */
+    static boolean add(Context context, String amount, String content) {
+        String normalized;
+        if (amount == null || amount.trim().length() == 0) {
+            normalized = null;
+        } else {
+            try {
+                normalized = new BigDecimal(amount.trim()).setScale(2, BigDecimal.ROUND_HALF_UP).toPlainString();
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        List<Code> codes = load(context);
+        String channel = channel(content);
+        for (int i = codes.size() - 1; i >= 0; i--) {
+            Code code = codes.get(i);
+            if (channel.equals(channel(code.content)) && equals(normalized, code.amount)) {
+                codes.remove(i);
+            }
+        }
+        codes.add(new Code(normalized, content));
+        save(context, codes);
+        return true;
+    }
+
+    static void remove(Context context, Code target) {
+        List<Code> codes = load(context);
+        for (int i = codes.size() - 1; i >= 0; i--) {
+            Code code = codes.get(i);
+            if (code.content.equals(target.content) && equals(code.amount, target.amount)) {
+                codes.remove(i);
+            }
+        }
+        save(context, codes);
+    }
+
+    /**
+     * 根据收款码内容判断渠道
+     */
+    static String channel(String content) {
+        String lower = content.toLowerCase();
+        if (lower.startsWith("wxp://") || lower.contains("weixin") || lower.contains("wechat")) {
+            return "微信";
+        }
+        if (lower.contains("alipay")) {
+            return "支付宝";
+        }
+        return "其他";
+    }
+
+    private static void save(Context context, List<Code> codes) {
+        Collections.sort(codes, new Comparator<Code>() {
+            @Override
+            public int compare(Code a, Code b) {
+                if (a.amount == null || b.amount == null) {
+                    return a.amount == null ? (b.amount == null ? 0 : -1) : 1;
+                }
+                return new BigDecimal(a.amount).compareTo(new BigDecimal(b.amount));
+            }
+        });
+        JSONArray array = new JSONArray();
+        try {
+            for (Code code : codes) {
+                JSONObject item = new JSONObject();
+                item.put("amount", code.amount == null ? JSONObject.NULL : code.amount);
+                item.put("content", code.content);
+                array.put(item);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "保存收款码失败", e);
+            return;
+        }
+        prefs(context).edit().putString(KEY, array.toString()).apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences("vone", Context.MODE_PRIVATE);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,118 @@
+package com.vone.vmq;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * V免签服务端接口（心跳 /api/monitor/heart、推送 /api/monitor/push）的客户端
+ * <p>
+ * 只依赖 okhttp，不引用 android 的类，便于在 JVM 上对接口交互做测试
+ */
+public class PushClient {
+
+    /**
+     * 推送失败后前台服务重试的次数，见 {@link ForegroundServer}
+     */
+    public static final int FORCE_PUSH_TRIES = 5;
+
+    public interface PushListener {
+        /**
+         * @param success 服务端是否返回 2xx
+         * @param url     请求的地址，失败时用于前台重试
+         * @param body    服务端返回内容，网络异常时为 null
+         * @param error   网络异常，正常返回时为 null
+         */
+        void onResult(boolean success, String url, String body, IOException error);
+    }
+
+    private final OkHttpClient client;
+
+    public PushClient(OkHttpClient client) {
+        this.client = client;
+    }
+
+    public static String heartUrl(String host, String key, long t) {
+        return "http://" + host + "/api/monitor/heart?t=" + t + "&sign=" + md5(t + key);
+    }
+
+    public static String pushUrl(String host, String key, int type, double price, long t) {
+        String sign = md5(type + "" + price + t + key);
+        return "http://" + host + "/api/monitor/push?t=" + t + "&type=" + type + "&price=" + price + "&sign=" + sign;
+    }
+
+    public Call heart(String host, String key, Callback callback) {
+        Request request = new Request.Builder().url(heartUrl(host, key, System.currentTimeMillis()))
+                .method("GET", null).build();
+        Call call = client.newCall(request);
+        call.enqueue(callback);
+        return call;
+    }
+
+    /**
+     * 前台服务重试用的地址
+     */
+    public static String forcePushUrl(String url) {
+        return url + "&force_push=true";
+    }
+
+    /**
+     * 推送一笔到账，只请求一次
+     * <p>
+     * 这里不自动重试：请求发出后连接断开时无法知道服务端是否已经入账，
+     * 是否重试由调用方决定（监听服务交给前台服务用 {@link #forcePushUrl} 重试）
+     *
+     * @param url 由 {@link #pushUrl} 或 {@link #forcePushUrl} 生成的已签名地址
+     */
+    public void push(final String url, final PushListener listener) {
+        Request request = new Request.Builder().url(url).get().build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                listener.onResult(false, url, null, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                String body;
+                try {
+                    body = response.body().string();
+                } catch (IOException e) {
+                    listener.onResult(false, url, null, e);
+                    return;
+                } finally {
+                    response.close();
+                }
+                listener.onResult(response.isSuccessful(), url, body, null);
+            }
+        });
+    }
+
+    public static String md5(String string) {
+        if (string == null || string.length() == 0) {
+            return "";
+        }
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            byte[] bytes = md5.digest(string.getBytes());
+            StringBuilder result = new StringBuilder();
+            for (byte b : bytes) {
+                String temp = Integer.toHexString(b & 0xff);
+                if (temp.length() == 1) {
+                    temp = "0" + temp;
+                }
+                result.append(temp);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        return "";
+    }
+}
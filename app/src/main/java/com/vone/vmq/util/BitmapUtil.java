@@ -4,17 +4,32 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Bitmap util.
  * <p>从Uri直接读取图片流，避免路径转换的适配问题</p>
+ * <p>解码出的图片可以通过 {@link #recycle(Bitmap)} 放回复用池，下一次解码时作为 inBitmap 复用内存</p>
  */
 public class BitmapUtil {
+    private static final String TAG = "BitmapUtil";
+
+    // 读取尺寸时 mark 的上限，图片头（包括 exif）一般远小于这个值，超过时重新打开流
+    private static final int MARK_LIMIT = 1024 * 1024;
+    // 复用池最多保留的图片数量
+    private static final int POOL_SIZE = 2;
+    private static final List<Bitmap> pool = new ArrayList<>(POOL_SIZE);
+
     /**
      * 读取一个缩放后的图片，限定图片大小，避免OOM
      *
@@ -24,92 +39,187 @@ public class BitmapUtil {
      * @return 返回一个缩放后的Bitmap，失败则返回null
      */
     public static Bitmap decodeUri(Context context, Uri uri, int maxWidth, int maxHeight) {
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true; //只读取图片尺寸
-        readBitmapScale(context, uri, options);
+        if (!isSupported(uri)) {
+            Log.e(TAG, "Unsupported uri: " + uri);
+            return null;
+        }
+        InputStream stream = null;
+        try {
+            // 同一个流先读尺寸再读内容，只打开一次
+            stream = new BufferedInputStream(context.getContentResolver().openInputStream(uri));
+            stream.mark(MARK_LIMIT);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true; //只读取图片尺寸
+            BitmapFactory.decodeStream(stream, null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            try {
+                stream.reset();
+            } catch (IOException e) {
+                // 图片头超过了 mark 的范围，只能重新打开
+                stream.close();
+                stream = new BufferedInputStream(context.getContentResolver().openInputStream(uri));
+            }
+
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                    maxWidth, maxHeight);
+            options.inJustDecodeBounds = false;//读取图片内容
+            options.inPreferredConfig = Bitmap.Config.RGB_565; //根据情况进行修改
+            options.inMutable = true;
+            options.inBitmap = obtainReusable(options);
+            try {
+                return BitmapFactory.decodeStream(stream, null, options);
+            } catch (IllegalArgumentException e) {
+                // 个别格式不支持 inBitmap，放弃复用重新读取
+                stream.close();
+                stream = new BufferedInputStream(context.getContentResolver().openInputStream(uri));
+                options.inBitmap = null;
+                return BitmapFactory.decodeStream(stream, null, options);
+            }
+        } catch (Throwable e) {
+            Log.e(TAG, "Unable to decode content: " + uri, e);
+            return null;
+        } finally {
+            close(stream, uri);
+        }
+    }
 
-        //计算实际缩放比例
-        int scale = 1;
-        for (int i = 0; i < Integer.MAX_VALUE; i++) {
-            if ((options.outWidth / scale > maxWidth &&
-                    options.outWidth / scale > maxWidth * 1.4) ||
-                    (options.outHeight / scale > maxHeight &&
-                            options.outHeight / scale > maxHeight * 1.4)) {
-                scale++;
-            } else {
-                break;
+    /**
+     * 读取图片尺寸
+     *
+     * @return 图片宽高，失败则返回null
+     */
+    public static Point decodeSize(Context context, Uri uri) {
+        if (!isSupported(uri)) {
+            return null;
+        }
+        InputStream stream = null;
+        try {
+            stream = context.getContentResolver().openInputStream(uri);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(stream, null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
             }
+            return new Point(options.outWidth, options.outHeight);
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to open content: " + uri, e);
+            return null;
+        } finally {
+            close(stream, uri);
         }
+    }
 
-        options.inSampleSize = scale;
-        options.inJustDecodeBounds = false;//读取图片内容
-        options.inPreferredConfig = Bitmap.Config.RGB_565; //根据情况进行修改
-        Bitmap bitmap = null;
+    /**
+     * 只解码图片的一个区域，用于从很大的长截图中取出可能包含二维码的部分
+     *
+     * @param region    原图坐标下的区域
+     * @param maxWidth  区域解码后的最大宽度
+     * @param maxHeight 区域解码后的最大高度
+     * @return 失败则返回null
+     */
+    public static Bitmap decodeRegion(Context context, Uri uri, Rect region, int maxWidth, int maxHeight) {
+        if (!isSupported(uri)) {
+            return null;
+        }
+        InputStream stream = null;
+        BitmapRegionDecoder decoder = null;
         try {
-            bitmap = readBitmapData(context, uri, options);
+            stream = context.getContentResolver().openInputStream(uri);
+            decoder = BitmapRegionDecoder.newInstance(stream, false);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = calculateInSampleSize(region.width(), region.height(),
+                    maxWidth, maxHeight);
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            return decoder.decodeRegion(region, options);
         } catch (Throwable e) {
-            e.printStackTrace();
+            Log.e(TAG, "Unable to decode region " + region + " of " + uri, e);
+            return null;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            close(stream, uri);
         }
-        return bitmap;
     }
 
-    private static void readBitmapScale(Context context, Uri uri, BitmapFactory.Options options) {
-        if (uri == null) {
+    /**
+     * 计算 2 的幂次的采样率（BitmapFactory 会把其他值向下取整成 2 的幂），
+     * 解码结果的边长在 max 到 2 * max 之间
+     */
+    public static int calculateInSampleSize(int width, int height, int maxWidth, int maxHeight) {
+        int ratio = Math.max(width / Math.max(1, maxWidth), height / Math.max(1, maxHeight));
+        return ratio <= 1 ? 1 : Integer.highestOneBit(ratio);
+    }
+
+    /**
+     * 不再使用的图片放回复用池，池满时直接回收
+     */
+    public static void recycle(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
             return;
         }
-        String scheme = uri.getScheme();
-        if (ContentResolver.SCHEME_CONTENT.equals(scheme) ||
-                ContentResolver.SCHEME_FILE.equals(scheme)) {
-            InputStream stream = null;
-            try {
-                stream = context.getContentResolver().openInputStream(uri);
-                BitmapFactory.decodeStream(stream, null, options);
-            } catch (Exception e) {
-                Log.w("readBitmapScale", "Unable to open content: " + uri, e);
-            } finally {
-                if (stream != null) {
-                    try {
-                        stream.close();
-                    } catch (IOException e) {
-                        Log.e("readBitmapScale", "Unable to close content: " + uri, e);
-                    }
+        if (bitmap.isMutable()) {
+            synchronized (pool) {
+                if (pool.size() < POOL_SIZE) {
+                    pool.add(bitmap);
+                    return;
+                }
+            }
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * 清空复用池，扫码界面关闭时调用，避免池中的大图一直占用内存
+     */
+    public static void clearPool() {
+        synchronized (pool) {
+            for (Bitmap bitmap : pool) {
+                bitmap.recycle();
+            }
+            pool.clear();
+        }
+    }
+
+    /**
+     * 从复用池中取一张内存足够容纳解码结果的图片
+     */
+    private static Bitmap obtainReusable(BitmapFactory.Options options) {
+        int sample = options.inSampleSize;
+        int width = (options.outWidth + sample - 1) / sample;
+        int height = (options.outHeight + sample - 1) / sample;
+        int byteCount = width * height * 2; // RGB_565
+        synchronized (pool) {
+            for (int i = 0; i < pool.size(); i++) {
+                Bitmap candidate = pool.get(i);
+                if (candidate.getConfig() == Bitmap.Config.RGB_565
+                        && candidate.getAllocationByteCount() >= byteCount) {
+                    return pool.remove(i);
                 }
             }
-        } else if (ContentResolver.SCHEME_ANDROID_RESOURCE.equals(scheme)) {
-            Log.e("readBitmapScale", "Unable to close content: " + uri);
-        } else {
-            Log.e("readBitmapScale", "Unable to close content: " + uri);
         }
+        return null;
     }
 
-    private static Bitmap readBitmapData(Context context, Uri uri, BitmapFactory.Options options) {
+    private static boolean isSupported(Uri uri) {
         if (uri == null) {
-            return null;
+            return false;
         }
-        Bitmap bitmap = null;
         String scheme = uri.getScheme();
-        if (ContentResolver.SCHEME_CONTENT.equals(scheme) ||
-                ContentResolver.SCHEME_FILE.equals(scheme)) {
-            InputStream stream = null;
+        return ContentResolver.SCHEME_CONTENT.equals(scheme) ||
+                ContentResolver.SCHEME_FILE.equals(scheme);
+    }
+
+    private static void close(InputStream stream, Uri uri) {
+        if (stream != null) {
             try {
-                stream = context.getContentResolver().openInputStream(uri);
-                bitmap = BitmapFactory.decodeStream(stream, null, options);
-            } catch (Exception e) {
-                Log.e("readBitmapData", "Unable to open content: " + uri, e);
-            } finally {
-                if (stream != null) {
-                    try {
-                        stream.close();
-                    } catch (IOException e) {
-                        Log.e("readBitmapData", "Unable to close content: " + uri, e);
-                    }
-                }
+                stream.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to close content: " + uri, e);
             }
-        } else if (ContentResolver.SCHEME_ANDROID_RESOURCE.equals(scheme)) {
-            Log.e("readBitmapData", "Unable to close content: " + uri);
-        } else {
-            Log.e("readBitmapData", "Unable to close content: " + uri);
         }
-        return bitmap;
     }
-}
\ No newline at end of file
+}
@@ -8,6 +8,8 @@ public class Constant {
     public static final int REQ_QR_CODE = 11002; // // 打开扫描界面请求码
     public static final int REQ_PERM_CAMERA = 11003; // 打开摄像头
     public static final int REQ_PERM_EXTERNAL_STORAGE = 11004; // 读写文件
+    public static final int REQ_PAY_CODE = 11005; // 扫描要保存的收款码
+    public static final int REQ_PERM_CAMERA_PAY_CODE = 11006; // 扫描收款码时打开摄像头
 
     public static final String INTENT_EXTRA_KEY_QR_SCAN = "qr_scan_result";
 }
@@ -0,0 +1,61 @@
+package com.google.zxing.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PreviewSizeSelectorTest {
+
+  private static List<PreviewSizeSelector.Size> sizes(int... dimensions) {
+    List<PreviewSizeSelector.Size> sizes = new ArrayList<PreviewSizeSelector.Size>();
+    for (int i = 0; i < dimensions.length; i += 2) {
+      sizes.add(new PreviewSizeSelector.Size(dimensions[i], dimensions[i + 1]));
+    }
+    return sizes;
+  }
+
+  // A typical 16:9 phone camera with a few 4:3 sizes mixed in.
+  private static final List<PreviewSizeSelector.Size> PHONE = sizes(
+      3840, 2160, 1920, 1080, 1440, 1080, 1280, 720, 960, 540, 800, 600, 640, 480, 352, 288);
+
+  @Test
+  public void qhdScreen_getsSmallestSizeMeetingTarget() {
+    // 2560x1440 used to pick the largest 16:9 size; 720p already gives a 504px framing region.
+    PreviewSizeSelector.Size size = PreviewSizeSelector.select(PHONE, 2560, 1440, 0);
+    assertEquals(1280, size.width);
+    assertEquals(720, size.height);
+  }
+
+  @Test
+  public void downshift_lowersResolution() {
+    assertEquals(960, PreviewSizeSelector.select(PHONE, 2560, 1440, 1).width);
+    // Nothing smaller in 16:9, so further steps stay at the smallest matching size.
+    assertEquals(960, PreviewSizeSelector.select(PHONE, 2560, 1440, 3).width);
+  }
+
+  @Test
+  public void aspectRatio_winsOverPixels() {
+    // A 4:3 screen only considers the 4:3 sizes, even though 1280x720 has fewer pixels.
+    PreviewSizeSelector.Size size = PreviewSizeSelector.select(PHONE, 1024, 768, 0);
+    assertEquals(1440, size.width);
+    assertEquals(1080, size.height);
+    assertEquals(800, PreviewSizeSelector.select(PHONE, 1024, 768, 1).width);
+  }
+
+  @Test
+  public void nothingMeetsTarget_usesLargest() {
+    PreviewSizeSelector.Size size =
+        PreviewSizeSelector.select(sizes(320, 240, 640, 480), 800, 600, 0);
+    assertEquals(640, size.width);
+  }
+
+  @Test
+  public void empty_returnsNull() {
+    assertNull(PreviewSizeSelector.select(new ArrayList<PreviewSizeSelector.Size>(), 1920, 1080, 0));
+  }
+
+}
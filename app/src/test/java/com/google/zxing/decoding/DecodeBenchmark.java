@@ -0,0 +1,304 @@
+package com.google.zxing.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.camera.PlanarYUVLuminanceSource;
+import com.google.zxing.camera.RotatedPlanarYUVLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.vone.vmq.util.BitmapUtil;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Off-device benchmark of the scanner's decode path: luminance source, {@link HybridBinarizer}
+ * and the QR-only reader that config scanning configures, over the frames and pictures of
+ * {@link DecodeCorpus}. For each input it prints the decode success rate, the wall time and the
+ * bytes allocated per frame, so a change to any of those pieces can be compared before and after.
+ *
+ * Preview frames go through the rotated source the scanner uses, the same with the decode
+ * workers' {@link PooledHybridBinarizer}, and the plain landscape {@link PlanarYUVLuminanceSource}
+ * crop. Gallery pictures are sampled down the way GalleryDecoder asks BitmapFactory to, and read
+ * through zxing's own RGBLuminanceSource, since the app's Bitmap-backed one cannot run on the
+ * JVM; both average pixels the same way.
+ *
+ * Skipped unless the {@code vmq.benchmark} system property is set, so the timing loops stay out
+ * of the regular unit-test run. Run with {@code ./gradlew testDebugUnitTest --tests
+ * '*DecodeBenchmark' -Pvmq.benchmark=true -Pvmq.benchmark.corpus=/path/to/dumps};
+ * {@code vmq.benchmark.iterations} sets the number of timed passes over each input.
+ */
+public class DecodeBenchmark {
+
+  private static final int WARMUP = 3;
+  private static final int ITERATIONS = Integer.getInteger("vmq.benchmark.iterations", 10);
+  // GalleryDecoder's attempts, longest edge first tried smallest.
+  private static final int[] GALLERY_SIZES = {500, 1000, 2000};
+
+  private static List<DecodeCorpus.Frame> frames;
+  private static List<DecodeCorpus.Picture> pictures;
+
+  @BeforeClass
+  public static void loadCorpus() throws Exception {
+    assumeTrue(Boolean.getBoolean("vmq.benchmark"));
+    frames = DecodeCorpus.syntheticFrames();
+    frames.addAll(DecodeCorpus.directoryFrames());
+    pictures = DecodeCorpus.syntheticPictures();
+    pictures.addAll(DecodeCorpus.directoryPictures());
+  }
+
+  /**
+   * Decodes one input; returns the result text, or null on a miss.
+   */
+  private interface Input {
+    String decode(MultiFormatReader reader);
+  }
+
+  /**
+   * Totals over the timed passes of one input.
+   */
+  private static final class Stats {
+    final String name;
+    final String expected;
+    int runs;
+    int hits;
+    int misreads;
+    long nanos;
+    long bytes;
+
+    Stats(String name, String expected) {
+      this.name = name;
+      this.expected = expected;
+    }
+
+    void add(Stats other) {
+      runs += other.runs;
+      hits += other.hits;
+      misreads += other.misreads;
+      nanos += other.nanos;
+      bytes += other.bytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%-28s %5.1f%% decoded %3d misread %9d ns/frame %9s B/frame",
+          name, runs == 0 ? 0.0 : 100.0 * hits / runs, misreads, runs == 0 ? 0 : nanos / runs,
+          bytes < 0 ? "n/a" : String.valueOf(runs == 0 ? 0 : bytes / runs));
+    }
+  }
+
+  private static ScanProfile configuredProfile() {
+    return new ScanProfile(new Vector<BarcodeFormat>(DecodeFormatManager.QR_CODE_FORMATS), null,
+        ScanProfile.DEFAULT_TRY_HARDER_AFTER);
+  }
+
+  private static MultiFormatReader configuredReader() {
+    MultiFormatReader reader = new MultiFormatReader();
+    reader.setHints(configuredProfile().buildHints(null));
+    return reader;
+  }
+
+  private static String decode(MultiFormatReader reader, LuminanceSource source) {
+    BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
+    try {
+      Result result = reader.decodeWithState(bitmap);
+      return result.getText();
+    } catch (ReaderException re) {
+      return null;
+    } finally {
+      reader.reset();
+    }
+  }
+
+  // Bytes allocated so far by this thread, or -1 when the JVM cannot tell.
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static Stats measure(String name, String expected, Input input) {
+    MultiFormatReader reader = configuredReader();
+    for (int i = 0; i < WARMUP; i++) {
+      input.decode(reader);
+    }
+    Stats stats = new Stats(name, expected);
+    long startBytes = allocatedBytes();
+    long start = System.nanoTime();
+    String[] texts = new String[ITERATIONS];
+    for (int i = 0; i < ITERATIONS; i++) {
+      texts[i] = input.decode(reader);
+    }
+    stats.nanos = System.nanoTime() - start;
+    stats.bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+    for (String text : texts) {
+      stats.runs++;
+      if (text == null) {
+        continue;
+      }
+      if (text.equals(expected)) {
+        stats.hits++;
+      } else {
+        stats.misreads++;
+      }
+    }
+    return stats;
+  }
+
+  private static Stats report(String title, List<Stats> results) {
+    System.out.println(title + ", " + ITERATIONS + " passes:");
+    Stats total = new Stats("total", null);
+    for (Stats stats : results) {
+      System.out.println("  " + stats);
+      total.add(stats);
+    }
+    System.out.println("  " + total);
+    return total;
+  }
+
+  private static List<Stats> runFrames(final boolean rotated, boolean pooled) {
+    ScanProfile profile = configuredProfile();
+    // Worker-style decoding: the context's own reader and binarizer buffers, kept across frames.
+    final DecodeContext context = pooled
+        ? new DecodeContext(profile.buildHints(null), profile.buildTryHarderHints(null)) : null;
+    List<Stats> results = new ArrayList<Stats>();
+    for (final DecodeCorpus.Frame frame : frames) {
+      // The framing rect is computed for the portrait image the user sees.
+      final int[] rect = DecodeCorpus.framingRect(frame.height, frame.width);
+      results.add(measure(frame.name, frame.expected, new Input() {
+        @Override
+        public String decode(MultiFormatReader reader) {
+          LuminanceSource source;
+          if (rotated) {
+            source = new RotatedPlanarYUVLuminanceSource(frame.data, frame.width, frame.height,
+                rect[0], rect[1], rect[2], rect[2]);
+          } else {
+            // The same pixels, cropped from the landscape buffer without rotating.
+            source = new PlanarYUVLuminanceSource(frame.data, frame.width, frame.height, rect[1],
+                frame.height - rect[0] - rect[2], rect[2], rect[2]);
+          }
+          if (context != null) {
+            Result result = context.decode(context.bitmap(source));
+            return result == null ? null : result.getText();
+          }
+          return DecodeBenchmark.decode(reader, source);
+        }
+      }));
+    }
+    return results;
+  }
+
+  @Test
+  public void previewFrames_rotatedSource() {
+    List<Stats> results = runFrames(true, false);
+    report("Preview frames, RotatedPlanarYUVLuminanceSource", results);
+    assertSyntheticFrames(results);
+  }
+
+  @Test
+  public void previewFrames_pooledBinarizer() {
+    List<Stats> results = runFrames(true, true);
+    report("Preview frames, RotatedPlanarYUVLuminanceSource + PooledHybridBinarizer", results);
+    assertSyntheticFrames(results);
+  }
+
+  @Test
+  public void previewFrames_planarSource() {
+    List<Stats> results = runFrames(false, false);
+    report("Preview frames, PlanarYUVLuminanceSource", results);
+    assertSyntheticFrames(results);
+  }
+
+  private static void assertSyntheticFrames(List<Stats> results) {
+    for (Stats stats : results) {
+      if (isFromDirectory(stats)) {
+        continue;
+      }
+      assertEquals(stats.name, 0, stats.misreads);
+      // Sharp, well lit codes must always decode; the rest is there to be measured.
+      if (stats.name.contains("_c170_") && !stats.name.contains("_blur_")) {
+        assertEquals(stats.name, stats.runs, stats.hits);
+      }
+    }
+  }
+
+  @Test
+  public void galleryPictures() {
+    List<Stats> results = new ArrayList<Stats>();
+    for (DecodeCorpus.Picture picture : pictures) {
+      final List<int[]> attempts = new ArrayList<int[]>();
+      final List<int[]> attemptSizes = new ArrayList<int[]>();
+      int previousWidth = 0;
+      for (int maxSize : GALLERY_SIZES) {
+        int sample = BitmapUtil.calculateInSampleSize(picture.width, picture.height, maxSize,
+            maxSize);
+        int width = picture.width / sample;
+        if (width <= previousWidth) {
+          break;
+        }
+        previousWidth = width;
+        int height = picture.height / sample;
+        attempts.add(sample(picture, sample, width, height));
+        attemptSizes.add(new int[] {width, height});
+      }
+      results.add(measure(picture.name, picture.expected, new Input() {
+        @Override
+        public String decode(MultiFormatReader reader) {
+          for (int i = 0; i < attempts.size(); i++) {
+            int[] size = attemptSizes.get(i);
+            String text = DecodeBenchmark.decode(reader,
+                new RGBLuminanceSource(size[0], size[1], attempts.get(i)));
+            if (text != null) {
+              return text;
+            }
+          }
+          return null;
+        }
+      }));
+    }
+    report("Gallery pictures, RGBLuminanceSource at " + GALLERY_SIZES.length + " sizes", results);
+    for (Stats stats : results) {
+      if (isFromDirectory(stats)) {
+        continue;
+      }
+      assertEquals(stats.name, 0, stats.misreads);
+      assertTrue(stats.name, stats.expected == null || stats.hits == stats.runs);
+    }
+  }
+
+  // Captures from the corpus directory are only reported: whether they decode is what is being
+  // measured, and unlabelled ones may well hold a code.
+  private static boolean isFromDirectory(Stats stats) {
+    return stats.name.indexOf('.') >= 0;
+  }
+
+  // Nearest-neighbour stand-in for BitmapFactory's inSampleSize, done outside the timed loop.
+  private static int[] sample(DecodeCorpus.Picture picture, int sample, int width, int height) {
+    int[] pixels = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        pixels[y * width + x] = picture.pixels[y * sample * picture.width + x * sample];
+      }
+    }
+    return pixels;
+  }
+
+}
@@ -0,0 +1,321 @@
+package com.google.zxing.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Inputs for {@link DecodeBenchmark}: landscape NV21 preview frames, as the camera delivers them,
+ * and ARGB gallery screenshots.
+ *
+ * A synthetic corpus is always available. Real captures can be added by pointing the
+ * {@code vmq.benchmark.corpus} system property at a directory holding
+ * <ul>
+ * <li>{@code <name>_<width>x<height>.nv21}: raw preview buffers, e.g. dumped from
+ * {@code onPreviewFrame()};</li>
+ * <li>{@code <name>.png} / {@code <name>.jpg}: gallery screenshots;</li>
+ * <li>{@code <name>.txt} next to either, holding the expected text. Inputs without one count as
+ * frames with no code in view, where any result is a misread.</li>
+ * </ul>
+ */
+final class DecodeCorpus {
+
+  static final String CORPUS_PROPERTY = "vmq.benchmark.corpus";
+  static final String CONTENT = "vmq.example.com:8080/0123456789abcdef0123456789abcdef";
+
+  private static final Pattern NV21_NAME = Pattern.compile(".*_(\\d+)x(\\d+)\\.nv21");
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  // Standard deviation of the sensor noise in low-light frames.
+  private static final double NOISE = 12.0;
+
+  /**
+   * A landscape NV21 preview frame.
+   */
+  static final class Frame {
+    final String name;
+    final byte[] data;
+    final int width;
+    final int height;
+    // Expected text, or null when no code is in view.
+    final String expected;
+
+    Frame(String name, byte[] data, int width, int height, String expected) {
+      this.name = name;
+      this.data = data;
+      this.width = width;
+      this.height = height;
+      this.expected = expected;
+    }
+  }
+
+  /**
+   * An ARGB gallery picture.
+   */
+  static final class Picture {
+    final String name;
+    final int[] pixels;
+    final int width;
+    final int height;
+    final String expected;
+
+    Picture(String name, int[] pixels, int width, int height, String expected) {
+      this.name = name;
+      this.pixels = pixels;
+      this.width = width;
+      this.height = height;
+      this.expected = expected;
+    }
+  }
+
+  private DecodeCorpus() {
+  }
+
+  /**
+   * The square the scanner crops from a portrait preview of {@code width} x {@code height}, as
+   * {left, top, side}; the same arithmetic as CameraManager.getFramingRect().
+   */
+  static int[] framingRect(int width, int height) {
+    int side = Math.min(width, height) * 7 / 10;
+    return new int[] {(width - side) / 2, (height - side) / 3, side};
+  }
+
+  /**
+   * Preview frames at the two common preview sizes: codes filling half and most of the framing
+   * rect, at print and screen-glare contrast, sharp and slightly out of focus, plus empty frames.
+   */
+  static List<Frame> syntheticFrames() throws WriterException {
+    List<Frame> frames = new ArrayList<Frame>();
+    int[][] sizes = {{1280, 720}, {1920, 1080}};
+    int[][] contrasts = {{40, 210}, {95, 150}};
+    long seed = 1;
+    for (int[] size : sizes) {
+      int width = size[0];
+      int height = size[1];
+      int[] rect = framingRect(height, width);
+      frames.add(new Frame("empty_" + width + "x" + height,
+          background(width, height, seed++), width, height, null));
+      for (int percent : new int[] {50, 85}) {
+        BitMatrix matrix = encode(rect[2] * percent / 100);
+        for (int[] contrast : contrasts) {
+          for (int blur = 0; blur <= 1; blur++) {
+            byte[] data = background(width, height, seed++);
+            drawRotated(data, width, height, matrix, contrast[0], contrast[1], rect);
+            if (blur > 0) {
+              boxBlur(data, width, height);
+            }
+            frames.add(new Frame("qr" + percent + "_c" + (contrast[1] - contrast[0])
+                + (blur > 0 ? "_blur_" : "_") + width + "x" + height, data, width, height,
+                CONTENT));
+          }
+        }
+      }
+    }
+    return frames;
+  }
+
+  /**
+   * Consecutive preview frames of a code held still in dim light: little contrast, and a new draw
+   * of heavy sensor noise in every frame.
+   */
+  static List<Frame> lowLightFrames(int width, int height, int count) throws WriterException {
+    List<Frame> frames = new ArrayList<Frame>();
+    int[] rect = framingRect(height, width);
+    BitMatrix matrix = encode(rect[2] * 85 / 100);
+    byte[] scene = new byte[width * height * 3 / 2];
+    Arrays.fill(scene, 0, width * height, (byte) 60);
+    drawRotated(scene, width, height, matrix, 30, 90, rect);
+    Random random = new Random(width + height);
+    for (int i = 0; i < count; i++) {
+      byte[] data = Arrays.copyOf(scene, scene.length);
+      for (int j = 0; j < width * height; j++) {
+        int value = (data[j] & 0xff) + (int) Math.round(random.nextGaussian() * NOISE);
+        data[j] = (byte) Math.max(0, Math.min(255, value));
+      }
+      frames.add(new Frame("lowlight" + i + "_" + width + "x" + height, data, width, height,
+          CONTENT));
+    }
+    return frames;
+  }
+
+  /**
+   * Phone screenshots: a code shared as a picture in a chat, and one in the lower part of a long
+   * page, plus a page with no code.
+   */
+  static List<Picture> syntheticPictures() throws WriterException {
+    List<Picture> pictures = new ArrayList<Picture>();
+    pictures.add(screenshot("chat_1080x2340", 1080, 2340, 360, 700, 600, true));
+    pictures.add(screenshot("long_1080x6000", 1080, 6000, 240, 4200, 420, true));
+    pictures.add(screenshot("page_1080x2340", 1080, 2340, 0, 0, 0, false));
+    return pictures;
+  }
+
+  /**
+   * Frames from the corpus directory, if one was given.
+   */
+  static List<Frame> directoryFrames() throws IOException {
+    List<Frame> frames = new ArrayList<Frame>();
+    for (File file : corpusFiles()) {
+      Matcher matcher = NV21_NAME.matcher(file.getName());
+      if (!matcher.matches()) {
+        continue;
+      }
+      int width = Integer.parseInt(matcher.group(1));
+      int height = Integer.parseInt(matcher.group(2));
+      byte[] data = readFully(file);
+      if (data.length < width * height) {
+        throw new IOException(file + " is too short for " + width + "x" + height);
+      }
+      frames.add(new Frame(file.getName(), data, width, height, expected(file)));
+    }
+    return frames;
+  }
+
+  /**
+   * Screenshots from the corpus directory, if one was given.
+   */
+  static List<Picture> directoryPictures() throws IOException {
+    List<Picture> pictures = new ArrayList<Picture>();
+    for (File file : corpusFiles()) {
+      String name = file.getName().toLowerCase();
+      if (!name.endsWith(".png") && !name.endsWith(".jpg") && !name.endsWith(".jpeg")) {
+        continue;
+      }
+      BufferedImage image = ImageIO.read(file);
+      if (image == null) {
+        throw new IOException("Unable to read " + file);
+      }
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+      pictures.add(new Picture(file.getName(), pixels, width, height, expected(file)));
+    }
+    return pictures;
+  }
+
+  private static List<File> corpusFiles() {
+    String path = System.getProperty(CORPUS_PROPERTY);
+    if (path == null || path.length() == 0) {
+      return new ArrayList<File>();
+    }
+    File[] files = new File(path).listFiles();
+    if (files == null) {
+      throw new IllegalArgumentException(CORPUS_PROPERTY + " is not a directory: " + path);
+    }
+    Arrays.sort(files);
+    return Arrays.asList(files);
+  }
+
+  private static String expected(File file) throws IOException {
+    String name = file.getName();
+    File text = new File(file.getParentFile(), name.substring(0, name.lastIndexOf('.')) + ".txt");
+    if (!text.isFile()) {
+      return null;
+    }
+    return new String(readFully(text), UTF8).trim();
+  }
+
+  private static byte[] readFully(File file) throws IOException {
+    byte[] data = new byte[(int) file.length()];
+    InputStream in = new FileInputStream(file);
+    try {
+      int offset = 0;
+      while (offset < data.length) {
+        int count = in.read(data, offset, data.length - offset);
+        if (count < 0) {
+          throw new IOException("Unexpected end of " + file);
+        }
+        offset += count;
+      }
+    } finally {
+      in.close();
+    }
+    return data;
+  }
+
+  private static BitMatrix encode(int side) throws WriterException {
+    return new QRCodeWriter().encode(CONTENT, BarcodeFormat.QR_CODE, side, side);
+  }
+
+  // A shaded background with a little sensor noise; chroma is left at zero.
+  private static byte[] background(int width, int height, long seed) {
+    byte[] frame = new byte[width * height * 3 / 2];
+    Random random = new Random(seed);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        frame[y * width + x] = (byte) (100 + x * 20 / width + y * 30 / height + random.nextInt(6));
+      }
+    }
+    return frame;
+  }
+
+  // Draws the code centred in the framing rect of the portrait (rotated) image.
+  private static void drawRotated(byte[] data, int width, int height, BitMatrix matrix, int dark,
+      int light, int[] rect) {
+    int offsetX = rect[0] + (rect[2] - matrix.getWidth()) / 2;
+    int offsetY = rect[1] + (rect[2] - matrix.getHeight()) / 2;
+    for (int y = 0; y < matrix.getHeight(); y++) {
+      for (int x = 0; x < matrix.getWidth(); x++) {
+        // Rotated pixel (rx, ry) lives at landscape (ry, height - 1 - rx).
+        int rx = offsetX + x;
+        int ry = offsetY + y;
+        data[ry + (height - 1 - rx) * width] = (byte) (matrix.get(x, y) ? dark : light);
+      }
+    }
+  }
+
+  // 3x3 box blur of the Y plane.
+  private static void boxBlur(byte[] data, int width, int height) {
+    byte[] source = Arrays.copyOf(data, width * height);
+    for (int y = 1; y < height - 1; y++) {
+      for (int x = 1; x < width - 1; x++) {
+        int sum = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+          int offset = (y + dy) * width + x;
+          sum += (source[offset - 1] & 0xff) + (source[offset] & 0xff)
+              + (source[offset + 1] & 0xff);
+        }
+        data[y * width + x] = (byte) (sum / 9);
+      }
+    }
+  }
+
+  private static Picture screenshot(String name, int width, int height, int left, int top,
+      int side, boolean withCode) throws WriterException {
+    int[] pixels = new int[width * height];
+    Arrays.fill(pixels, 0xFFF5F5F5);
+    // Lines of "text" so the binarizer sees something other than flat background.
+    for (int y = 120; y + 24 < height; y += 64) {
+      int length = width / 3 + (y * 7919 % (width / 2));
+      for (int row = y; row < y + 24; row++) {
+        Arrays.fill(pixels, row * width + 48, row * width + Math.min(width - 48, 48 + length),
+            0xFF444444);
+      }
+    }
+    if (withCode) {
+      BitMatrix matrix = encode(side);
+      for (int y = 0; y < side; y++) {
+        for (int x = 0; x < side; x++) {
+          pixels[(top + y) * width + left + x] = matrix.get(x, y) ? 0xFF000000 : 0xFFFFFFFF;
+        }
+      }
+    }
+    return new Picture(name, pixels, width, height, withCode ? CONTENT : null);
+  }
+
+}
@@ -0,0 +1,106 @@
+package com.google.zxing.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.camera.RotatedPlanarYUVLuminanceSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Vector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Averages the low-light frames of {@link DecodeCorpus} with a {@link FrameAccumulator}.
+ */
+public class FrameAccumulatorTest {
+
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+  private static final int FRAMES = 8;
+
+  private int[] rect;
+  private DecodeContext context;
+
+  @Before
+  public void setUp() {
+    rect = DecodeCorpus.framingRect(HEIGHT, WIDTH);
+    ScanProfile profile = new ScanProfile(
+        new Vector<BarcodeFormat>(DecodeFormatManager.QR_CODE_FORMATS), null, 0);
+    context = new DecodeContext(profile.buildHints(null), profile.buildTryHarderHints(null));
+  }
+
+  private void add(FrameAccumulator accumulator, DecodeCorpus.Frame frame) {
+    accumulator.add(frame.data, frame.width, frame.height, rect[0], rect[1], rect[2], rect[2]);
+  }
+
+  private RotatedPlanarYUVLuminanceSource crop(byte[] data) {
+    return new RotatedPlanarYUVLuminanceSource(data, WIDTH, HEIGHT, rect[0], rect[1], rect[2],
+        rect[2]);
+  }
+
+  @Test
+  public void composite_isTheFramingRectOfASteadyScene() throws Exception {
+    DecodeCorpus.Frame frame = null;
+    for (DecodeCorpus.Frame candidate : DecodeCorpus.syntheticFrames()) {
+      if (candidate.name.equals("qr50_c170_1280x720")) {
+        frame = candidate;
+      }
+    }
+    FrameAccumulator accumulator = new FrameAccumulator(FRAMES);
+    for (int i = 0; i < FRAMES; i++) {
+      add(accumulator, frame);
+    }
+    RotatedPlanarYUVLuminanceSource composite =
+        accumulator.buildLuminanceSource(accumulator.composite(null));
+    assertEquals(rect[2], composite.getWidth());
+    assertEquals(rect[2], composite.getHeight());
+    assertArrayEquals(crop(frame.data).getMatrix(), composite.getMatrix());
+  }
+
+  @Test
+  public void lowLight_compositeDecodesWhereFramesDoNot() throws Exception {
+    List<DecodeCorpus.Frame> frames = DecodeCorpus.lowLightFrames(WIDTH, HEIGHT, FRAMES);
+    FrameAccumulator accumulator = new FrameAccumulator(FRAMES);
+    int decoded = 0;
+    for (DecodeCorpus.Frame frame : frames) {
+      if (context.decode(context.bitmap(crop(frame.data))) != null) {
+        decoded++;
+      }
+      add(accumulator, frame);
+    }
+    assertEquals(0, decoded);
+
+    assertTrue(accumulator.isDue());
+    Result result = context.decode(
+        context.bitmap(accumulator.buildLuminanceSource(accumulator.composite(null))));
+    assertNotNull(result);
+    assertEquals(DecodeCorpus.CONTENT, result.getText());
+  }
+
+  @Test
+  public void isDue_onceTheWindowIsRefilled() throws Exception {
+    List<DecodeCorpus.Frame> frames = DecodeCorpus.lowLightFrames(WIDTH, HEIGHT, 1);
+    FrameAccumulator accumulator = new FrameAccumulator(4);
+    for (int i = 1; i <= 12; i++) {
+      add(accumulator, frames.get(0));
+      assertEquals("frame " + i, i % 4 == 0, accumulator.isDue());
+    }
+    accumulator.reset();
+    add(accumulator, frames.get(0));
+    assertFalse(accumulator.isDue());
+  }
+
+  @Test
+  public void frames_roundDownToAPowerOfTwo() {
+    assertEquals(4, new FrameAccumulator(6).getFrames());
+    assertEquals(2, new FrameAccumulator(1).getFrames());
+  }
+
+}
@@ -0,0 +1,102 @@
+package com.google.zxing.decoding;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link FrameQualityGate} over the synthetic frames of {@link DecodeCorpus}.
+ */
+public class FrameQualityGateTest {
+
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+
+  private FrameQualityGate gate;
+  private byte[] sharp;
+  private byte[] blurred;
+  private byte[] empty;
+
+  @Before
+  public void setUp() throws Exception {
+    gate = new FrameQualityGate();
+    List<DecodeCorpus.Frame> frames = DecodeCorpus.syntheticFrames();
+    for (DecodeCorpus.Frame frame : frames) {
+      if (frame.name.equals("qr50_c170_1280x720")) {
+        sharp = frame.data;
+      } else if (frame.name.equals("empty_1280x720")) {
+        empty = frame.data;
+      }
+    }
+    blurred = Arrays.copyOf(sharp, sharp.length);
+    for (int i = 0; i < 3; i++) {
+      boxBlur(blurred);
+    }
+  }
+
+  private int check(byte[] frame) {
+    int[] rect = DecodeCorpus.framingRect(HEIGHT, WIDTH);
+    return gate.check(frame, WIDTH, HEIGHT, rect[0], rect[1], rect[2], rect[2]);
+  }
+
+  @Test
+  public void steadySharpFrames_areDecoded() {
+    for (int i = 0; i < 10; i++) {
+      assertEquals(FrameQualityGate.DECODE, check(sharp));
+    }
+  }
+
+  @Test
+  public void focusDrop_isSkippedThenDecodedAnyway() {
+    check(sharp);
+    check(sharp);
+    for (int i = 0; i < FrameQualityGate.MAX_CONSECUTIVE_SKIPS; i++) {
+      assertEquals(FrameQualityGate.BLURRED, check(blurred));
+    }
+    // A code that is simply soft must still reach the decoder.
+    assertEquals(FrameQualityGate.DECODE, check(blurred));
+  }
+
+  @Test
+  public void sceneChange_isMoving() {
+    check(empty);
+    assertEquals(FrameQualityGate.MOVING, check(sharp));
+    assertEquals(FrameQualityGate.DECODE, check(sharp));
+  }
+
+  @Test
+  public void reset_forgetsPreviousFrame() {
+    check(empty);
+    gate.reset();
+    assertEquals(FrameQualityGate.DECODE, check(sharp));
+  }
+
+  @Test
+  public void refocus_isRateLimited() {
+    assertTrue(gate.shouldRefocus(10000L));
+    assertFalse(gate.shouldRefocus(10500L));
+    assertTrue(gate.shouldRefocus(12000L));
+  }
+
+  private static void boxBlur(byte[] data) {
+    byte[] source = Arrays.copyOf(data, WIDTH * HEIGHT);
+    for (int y = 1; y < HEIGHT - 1; y++) {
+      for (int x = 1; x < WIDTH - 1; x++) {
+        int sum = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+          int offset = (y + dy) * WIDTH + x;
+          sum += (source[offset - 1] & 0xff) + (source[offset] & 0xff)
+              + (source[offset + 1] & 0xff);
+        }
+        data[y * WIDTH + x] = (byte) (sum / 9);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,49 @@
+package com.google.zxing.decoding;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.camera.RotatedPlanarYUVLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.Test;
+
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link PooledHybridBinarizer} must threshold exactly like {@link HybridBinarizer}, including
+ * when its buffers still hold the previous frame.
+ */
+public class PooledHybridBinarizerTest {
+
+  @Test
+  public void matchesHybridBinarizer_acrossFramesAndSizes() throws Exception {
+    DecodeContext context = new DecodeContext(new Hashtable<DecodeHintType, Object>(),
+        new Hashtable<DecodeHintType, Object>());
+    for (DecodeCorpus.Frame frame : DecodeCorpus.syntheticFrames()) {
+      int[] rect = DecodeCorpus.framingRect(frame.height, frame.width);
+      LuminanceSource source = new RotatedPlanarYUVLuminanceSource(frame.data, frame.width,
+          frame.height, rect[0], rect[1], rect[2], rect[2]);
+      BitMatrix expected = new HybridBinarizer(source).getBlackMatrix();
+      BitMatrix actual = new PooledHybridBinarizer(source, context).getBlackMatrix();
+      assertEquals(frame.name, expected, actual);
+    }
+  }
+
+  @Test
+  public void sameSize_reusesMatrix() throws Exception {
+    DecodeContext context = new DecodeContext(new Hashtable<DecodeHintType, Object>(),
+        new Hashtable<DecodeHintType, Object>());
+    DecodeCorpus.Frame frame = DecodeCorpus.syntheticFrames().get(1);
+    int[] rect = DecodeCorpus.framingRect(frame.height, frame.width);
+    LuminanceSource source = new RotatedPlanarYUVLuminanceSource(frame.data, frame.width,
+        frame.height, rect[0], rect[1], rect[2], rect[2]);
+    BitMatrix first = new PooledHybridBinarizer(source, context).getBlackMatrix();
+    BitMatrix second = new PooledHybridBinarizer(source, context).getBlackMatrix();
+    assertSame(first, second);
+  }
+
+}
@@ -0,0 +1,159 @@
+package com.google.zxing.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.camera.RotatedPlanarYUVLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares per-frame decode time of the default profile (1D + QR Code + Data Matrix) with the
+ * QR-only profile used for config scanning, on synthetic landscape NV21 preview frames: one with
+ * a config QR code in the framing rect and one with only a shaded, slightly noisy background,
+ * which is what most frames look like while the user is still aiming.
+ *
+ * The timing comparison only prints its numbers and is skipped unless the {@code vmq.benchmark}
+ * system property is set ({@code -Pvmq.benchmark=true}); the other tests check behaviour only.
+ */
+public class ScanProfileBenchmark {
+
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+  private static final int FRAME_SIZE = 480;
+  private static final String CONTENT = "vmq.example.com:8080/0123456789abcdef0123456789abcdef";
+  private static final int WARMUP = 30;
+  private static final int ITERATIONS = 100;
+
+  private static byte[] codeFrame;
+  private static byte[] emptyFrame;
+
+  @BeforeClass
+  public static void createFrames() throws Exception {
+    emptyFrame = noiseFrame(1);
+    codeFrame = noiseFrame(2);
+    BitMatrix matrix = new QRCodeWriter().encode(CONTENT, BarcodeFormat.QR_CODE, 360, 360);
+    int offsetX = (HEIGHT - matrix.getWidth()) / 2;
+    int offsetY = (WIDTH - matrix.getHeight()) / 2;
+    for (int y = 0; y < matrix.getHeight(); y++) {
+      for (int x = 0; x < matrix.getWidth(); x++) {
+        // Rotated pixel (rx, ry) lives at landscape (ry, HEIGHT - 1 - rx).
+        int rx = offsetX + x;
+        int ry = offsetY + y;
+        codeFrame[ry + (HEIGHT - 1 - rx) * WIDTH] = (byte) (matrix.get(x, y) ? 40 : 210);
+      }
+    }
+  }
+
+  private static byte[] noiseFrame(long seed) {
+    byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+    Random random = new Random(seed);
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        frame[y * WIDTH + x] = (byte) (100 + x / 16 + y / 24 + random.nextInt(6));
+      }
+    }
+    return frame;
+  }
+
+  private static RotatedPlanarYUVLuminanceSource framingRect(byte[] frame) {
+    return new RotatedPlanarYUVLuminanceSource(frame, WIDTH, HEIGHT, (HEIGHT - FRAME_SIZE) / 2,
+        (WIDTH - FRAME_SIZE) / 2, FRAME_SIZE, FRAME_SIZE);
+  }
+
+  private static Result decode(MultiFormatReader reader, byte[] frame) {
+    BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(framingRect(frame)));
+    try {
+      return reader.decodeWithState(bitmap);
+    } catch (ReaderException re) {
+      return null;
+    } finally {
+      reader.reset();
+    }
+  }
+
+  private static long nanosPerFrame(MultiFormatReader reader, byte[] frame) {
+    for (int i = 0; i < WARMUP; i++) {
+      decode(reader, frame);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      decode(reader, frame);
+    }
+    return (System.nanoTime() - start) / ITERATIONS;
+  }
+
+  private static MultiFormatReader reader(ScanProfile profile) {
+    MultiFormatReader reader = new MultiFormatReader();
+    reader.setHints(profile.buildHints(null));
+    return reader;
+  }
+
+  private static ScanProfile qrOnly() {
+    return new ScanProfile(new Vector<BarcodeFormat>(DecodeFormatManager.QR_CODE_FORMATS), null,
+        ScanProfile.DEFAULT_TRY_HARDER_AFTER);
+  }
+
+  @Test
+  public void qrOnlyProfile_decodesConfigCode() {
+    Result result = decode(reader(qrOnly()), codeFrame);
+    assertNotNull(result);
+    assertEquals(CONTENT, result.getText());
+  }
+
+  @Test
+  public void qrOnlyProfile_leavesOut1DFormats() {
+    Collection<?> formats =
+        (Collection<?>) qrOnly().buildHints(null).get(DecodeHintType.POSSIBLE_FORMATS);
+    assertTrue(formats.contains(BarcodeFormat.QR_CODE));
+    for (BarcodeFormat format : DecodeFormatManager.ONE_D_FORMATS) {
+      assertFalse(format.toString(), formats.contains(format));
+    }
+  }
+
+  @Test
+  public void qrOnlyProfile_timeOnMissedFrames() {
+    assumeTrue(Boolean.getBoolean("vmq.benchmark"));
+    MultiFormatReader all = reader(new ScanProfile(null, null, 0));
+    MultiFormatReader qr = reader(qrOnly());
+    long allMiss = nanosPerFrame(all, emptyFrame);
+    long qrMiss = nanosPerFrame(qr, emptyFrame);
+    long allHit = nanosPerFrame(all, codeFrame);
+    long qrHit = nanosPerFrame(qr, codeFrame);
+    System.out.println("miss: all formats " + allMiss / 1000 + " us/frame, QR only "
+        + qrMiss / 1000 + " us/frame");
+    System.out.println("hit:  all formats " + allHit / 1000 + " us/frame, QR only "
+        + qrHit / 1000 + " us/frame");
+  }
+
+  @Test
+  public void tryHarder_onlyEveryNthMiss() {
+    ScanProfile profile = new ScanProfile(null, null, 4);
+    int passes = 0;
+    for (int misses = 1; misses <= 20; misses++) {
+      if (profile.shouldTryHarder(misses)) {
+        passes++;
+      }
+    }
+    assertEquals(5, passes);
+    assertTrue(!new ScanProfile(null, null, 0).shouldTryHarder(8));
+  }
+
+}
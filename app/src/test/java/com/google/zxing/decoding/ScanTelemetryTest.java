@@ -0,0 +1,102 @@
+package com.google.zxing.decoding;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records a made-up session into a {@link ScanTelemetry}.
+ */
+public class ScanTelemetryTest {
+
+  private static final long MS = 1000000L;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void histogram_percentilesAreBucketBounds() {
+    ScanTelemetry.Histogram histogram = new ScanTelemetry.Histogram("test");
+    assertEquals(0, histogram.percentileMillis(50));
+    for (int i = 0; i < 8; i++) {
+      histogram.record(3 * MS);
+    }
+    histogram.record(20 * MS);
+    histogram.record(900 * MS);
+    assertEquals(10, histogram.getCount());
+    assertEquals(4, histogram.percentileMillis(50));
+    assertEquals(32, histogram.percentileMillis(90));
+    // The open last bucket reports the largest duration seen.
+    assertEquals(900, histogram.percentileMillis(100));
+    assertEquals(900, histogram.getMaxMillis());
+  }
+
+  @Test
+  public void session_recordsLatenciesAndStages() {
+    ScanTelemetry telemetry = new ScanTelemetry("test", 0L, 0L);
+    assertEquals(-1, telemetry.getTimeToFirstResultMillis());
+    telemetry.cameraOpened(180 * MS);
+    telemetry.frameReceived(400 * MS);
+    telemetry.frameSkipped(FrameQualityGate.MOVING);
+    telemetry.frameReceived(430 * MS);
+    telemetry.frameDecoded(false, MS, 2 * MS, 5 * MS, 8 * MS);
+    telemetry.frameReceived(460 * MS);
+    telemetry.frameDecoded(true, MS, 2 * MS, 7 * MS, 10 * MS);
+    telemetry.resultFound(470 * MS);
+    telemetry.resultFound(500 * MS);
+
+    assertEquals(3, telemetry.getFramesReceived());
+    assertEquals(2, telemetry.getFramesDecoded());
+    assertEquals(470, telemetry.getTimeToFirstResultMillis());
+    assertEquals(2, telemetry.getTotal().getCount());
+    assertEquals(16, telemetry.getTotal().percentileMillis(90));
+
+    StringBuilder summary = new StringBuilder();
+    telemetry.appendSummary(summary);
+    String text = summary.toString();
+    assertTrue(text, text.startsWith("open 180 ms  1st frame 400 ms  1st result 470 ms\n"));
+    assertTrue(text, text.contains("frames 3  decoded 2  moving 1  blurred 0  averaged 1\n"));
+  }
+
+  @Test
+  public void export_appendsUntilTheFileIsFull() throws IOException {
+    File file = new File(folder.getRoot(), "scan_telemetry.txt");
+    ScanTelemetry telemetry = new ScanTelemetry("test", 0L, 0L);
+    telemetry.frameReceived(MS);
+    telemetry.export(file, 1024 * 1024);
+    long once = file.length();
+    telemetry.export(file, 1024 * 1024);
+    assertEquals(2 * once, file.length());
+    assertTrue(read(file).contains("detect+decode: <0.5ms=0"));
+
+    telemetry.export(file, once);
+    assertEquals(once, file.length());
+  }
+
+  private static String read(File file) throws IOException {
+    StringBuilder text = new StringBuilder();
+    InputStream in = new FileInputStream(file);
+    try {
+      Reader reader = new InputStreamReader(in, "UTF-8");
+      char[] buffer = new char[1024];
+      int count;
+      while ((count = reader.read(buffer)) > 0) {
+        text.append(buffer, 0, count);
+      }
+    } finally {
+      in.close();
+    }
+    return text.toString();
+  }
+
+}
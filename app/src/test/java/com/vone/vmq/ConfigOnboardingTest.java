@@ -0,0 +1,181 @@
+package com.vone.vmq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 通过 {@link MockVmqServer} 检查配置上线检查的各个阶段，以及旧检查结果会被丢弃
+ */
+public class ConfigOnboardingTest {
+    private static final String KEY = "test-key";
+
+    private MockVmqServer server;
+    // 解析 slow.test 时阻塞，直到测试放行
+    private final CountDownLatch slowDns = new CountDownLatch(1);
+    private ConfigOnboarding onboarding;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockVmqServer(KEY);
+        server.start();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dns(new Dns() {
+                    @Override
+                    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                        if (hostname.endsWith(".invalid")) {
+                            throw new UnknownHostException(hostname);
+                        }
+                        if (hostname.equals("slow.test")) {
+                            try {
+                                slowDns.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            throw new UnknownHostException(hostname);
+                        }
+                        return Dns.SYSTEM.lookup(hostname);
+                    }
+                })
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(5, TimeUnit.SECONDS)
+                .build();
+        onboarding = new ConfigOnboarding(client);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        slowDns.countDown();
+        server.stop();
+    }
+
+    @Test
+    public void parse_splitsHostAndKey() {
+        assertArrayEquals(new String[]{"192.168.1.101:8080", "abc"}, ConfigOnboarding.parse(" 192.168.1.101:8080/abc\n"));
+        assertNull(ConfigOnboarding.parse("192.168.1.101:8080"));
+        assertNull(ConfigOnboarding.parse("a/b/c"));
+        assertNull(ConfigOnboarding.parse("/abc"));
+        assertNull(ConfigOnboarding.parse(null));
+    }
+
+    @Test
+    public void parseHeart_readsTopLevelCodeOnly() {
+        ConfigOnboarding.HeartReply reply =
+                ConfigOnboarding.parseHeart("{\"data\":{\"code\":1},\"code\":-1,\"msg\":\"签名校验错误\"}");
+        assertEquals(-1, reply.code);
+        assertEquals("签名校验错误", reply.msg);
+        assertFalse(reply.isSuccess());
+        assertTrue(ConfigOnboarding.parseHeart("{\"code\":200,\"msg\":\"成功\",\"data\":null}").isSuccess());
+        assertTrue(ConfigOnboarding.parseHeart("{\"code\":0,\"msg\":\"成功\"}").isSuccess());
+        assertNull(ConfigOnboarding.parseHeart("<html>502 Bad Gateway</html>"));
+        assertNull(ConfigOnboarding.parseHeart("{\"msg\":\"没有 code\"}"));
+    }
+
+    @Test
+    public void check_validConfigIsReady() {
+        ConfigOnboarding.Result result = onboarding.check(server.host(), KEY);
+        assertTrue(result.message, result.ready);
+        assertEquals(ConfigOnboarding.STAGE_DONE, result.stage);
+        assertEquals(1, server.heartCount.get());
+    }
+
+    @Test
+    public void check_timesDnsAndConnectOfTheHeartbeatConnection() {
+        ConfigOnboarding.Result result = onboarding.check(server.host(), KEY);
+        assertTrue(result.message, result.ready);
+        assertTrue(result.dnsMillis >= 0);
+        assertTrue(result.connectMillis >= 0);
+        assertTrue(result.heartMillis >= 0);
+    }
+
+    @Test
+    public void check_droppedHeartbeatFailsAtHeartbeat() {
+        // 连接成功，但服务端收到请求后直接断开
+        server.inject(0, 0, 1.0, 0);
+        ConfigOnboarding.Result result = onboarding.check(server.host(), KEY);
+        assertFalse(result.ready);
+        assertEquals(ConfigOnboarding.STAGE_HEART, result.stage);
+        assertTrue(result.connectMillis >= 0);
+    }
+
+    @Test
+    public void check_wrongKeyFailsAtHeartbeat() {
+        ConfigOnboarding.Result result = onboarding.check(server.host(), "wrong-key");
+        assertFalse(result.ready);
+        assertEquals(ConfigOnboarding.STAGE_HEART, result.stage);
+        assertTrue(result.isReachable());
+        assertEquals(1, server.badSignCount.get());
+    }
+
+    @Test
+    public void check_unknownHostFailsAtDns() {
+        ConfigOnboarding.Result result = onboarding.check("vmq.invalid:8080", KEY);
+        assertFalse(result.ready);
+        assertEquals(ConfigOnboarding.STAGE_DNS, result.stage);
+        assertFalse(result.isReachable());
+    }
+
+    @Test
+    public void check_closedPortFailsAtConnect() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        int port = socket.getLocalPort();
+        socket.close();
+
+        ConfigOnboarding.Result result = onboarding.check("127.0.0.1:" + port, KEY);
+        assertFalse(result.ready);
+        assertEquals(ConfigOnboarding.STAGE_CONNECT, result.stage);
+        assertEquals(0, server.heartCount.get());
+    }
+
+    @Test
+    public void start_reportsOnlyTheLatestConfig() throws Exception {
+        final AtomicReference<ConfigOnboarding.Result> stale = new AtomicReference<>();
+        onboarding.start("slow.test:8080", KEY, new ConfigOnboarding.Listener() {
+            @Override
+            public void onResult(ConfigOnboarding.Result result) {
+                stale.set(result);
+            }
+        });
+        assertFalse(onboarding.isReady());
+        assertTrue(onboarding.getResult().isChecking());
+        assertFalse(onboarding.getResult().isReachable());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<ConfigOnboarding.Result> latest = new AtomicReference<>();
+        onboarding.start(server.host(), KEY, new ConfigOnboarding.Listener() {
+            @Override
+            public void onResult(ConfigOnboarding.Result result) {
+                latest.set(result);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(onboarding.isReady());
+
+        // 放行第一次检查，它的结果不能覆盖新配置
+        slowDns.countDown();
+        Thread.sleep(200);
+        assertNull(stale.get());
+        assertSame(latest.get(), onboarding.getResult());
+        assertTrue(onboarding.isReady());
+    }
+}
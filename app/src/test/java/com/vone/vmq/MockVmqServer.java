@@ -0,0 +1,139 @@
+package com.vone.vmq;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * 本地模拟的V免签服务端，校验心跳/推送签名，并按比例注入延迟、错误和断开连接
+ * <p>
+ * 和真实服务端一样，推送每到达一次就入账一次，不按签名去重；按签名统计每笔订单的入账次数，
+ * 同一笔订单多次入账的次数记在 duplicateCount
+ */
+class MockVmqServer extends Dispatcher {
+
+    private final MockWebServer server = new MockWebServer();
+    private final String key;
+    private final Random random = new Random(42);
+
+    private int maxLatencyMs;
+    private double errorRate;
+    private double dropBeforeRate;
+    private double dropAfterRate;
+
+    final AtomicInteger heartCount = new AtomicInteger();
+    final AtomicInteger badSignCount = new AtomicInteger();
+    final AtomicInteger duplicateCount = new AtomicInteger();
+    // 签名 -> 入账次数
+    final Map<String, AtomicInteger> credits = new ConcurrentHashMap<>();
+
+    MockVmqServer(String key) {
+        Logger.getLogger(MockWebServer.class.getName()).setLevel(Level.SEVERE);
+        this.key = key;
+        server.setDispatcher(this);
+    }
+
+    /**
+     * @param maxLatencyMs   每个响应随机延迟 0 ~ maxLatencyMs 毫秒
+     * @param errorRate      返回 500 的比例（不入账）
+     * @param dropBeforeRate 收到请求后不处理直接断开的比例
+     * @param dropAfterRate  入账后断开、客户端收不到响应的比例
+     */
+    void inject(int maxLatencyMs, double errorRate, double dropBeforeRate, double dropAfterRate) {
+        this.maxLatencyMs = maxLatencyMs;
+        this.errorRate = errorRate;
+        this.dropBeforeRate = dropBeforeRate;
+        this.dropAfterRate = dropAfterRate;
+    }
+
+    void start() throws IOException {
+        server.start();
+    }
+
+    void stop() throws IOException {
+        server.shutdown();
+    }
+
+    String host() {
+        return server.getHostName() + ":" + server.getPort();
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        HttpUrl url = HttpUrl.parse("http://" + host() + request.getPath());
+        if (url == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+        double roll;
+        int latency;
+        synchronized (random) {
+            roll = random.nextDouble();
+            latency = maxLatencyMs > 0 ? random.nextInt(maxLatencyMs + 1) : 0;
+        }
+        if (roll < dropBeforeRate) {
+            // 请求未被处理，连接直接断开
+            return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+        }
+        roll -= dropBeforeRate;
+        if (roll < errorRate) {
+            return json(500, "服务器错误", latency);
+        }
+        roll -= errorRate;
+
+        String t = url.queryParameter("t");
+        String sign = url.queryParameter("sign");
+        if ("/api/monitor/heart".equals(url.encodedPath())) {
+            if (!PushClient.md5(t + key).equals(sign)) {
+                badSignCount.incrementAndGet();
+                return json(200, "签名校验错误", latency).setBody("{\"code\":-1,\"msg\":\"签名校验错误\"}");
+            }
+            heartCount.incrementAndGet();
+            return json(200, "成功", latency);
+        }
+        if ("/api/monitor/push".equals(url.encodedPath())) {
+            String type = url.queryParameter("type");
+            String price = url.queryParameter("price");
+            if (!PushClient.md5(type + price + t + key).equals(sign)) {
+                badSignCount.incrementAndGet();
+                return json(200, "签名校验错误", latency).setBody("{\"code\":-1,\"msg\":\"签名校验错误\"}");
+            }
+            AtomicInteger count = credits.get(sign);
+            if (count == null) {
+                AtomicInteger created = new AtomicInteger();
+                count = credits.putIfAbsent(sign, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            if (count.incrementAndGet() > 1) {
+                duplicateCount.incrementAndGet();
+            }
+            if (roll < dropAfterRate) {
+                return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+            }
+            return json(200, "成功", latency);
+        }
+        return new MockResponse().setResponseCode(404);
+    }
+
+    private static MockResponse json(int code, String msg, int latencyMs) {
+        MockResponse response = new MockResponse().setResponseCode(code)
+                .setBody("{\"code\":" + (code == 200 ? 1 : -1) + ",\"msg\":\"" + msg + "\"}");
+        if (latencyMs > 0) {
+            response.setBodyDelay(latencyMs, TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,65 @@
+package com.vone.vmq;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 检查 {@link NotificationFilter} 的完美哈希表和用户额外选择的应用
+ */
+public class NotificationFilterTest {
+
+    private static final String[] MONITORED = {
+            NotificationFilter.PKG_ALIPAY, NotificationFilter.PKG_WECHAT,
+            NotificationFilter.PKG_WEWORK, NotificationFilter.PKG_SELF};
+
+    @After
+    public void tearDown() {
+        NotificationFilter.setOptIn("", false);
+    }
+
+    @Test
+    public void monitoredPackages_accepted() {
+        for (String pkg : MONITORED) {
+            assertTrue(pkg, NotificationFilter.isMonitored(pkg));
+            assertTrue(pkg, NotificationFilter.accept(pkg));
+            // 不能依赖同一个 String 实例
+            assertTrue(pkg, NotificationFilter.isMonitored(new String(pkg.toCharArray())));
+        }
+    }
+
+    @Test
+    public void nearMisses_rejected() {
+        String[] misses = {
+                "com.tencent.mmx", "com.tencent.m", "com.tencent.MM", "com.tencent.wework ",
+                "com.eg.android.alipaygphone", "com.eg.android.AlipayGphon", "com.vone.qrcode.debug",
+                "com.tencent.mobileqq", "com.android.systemui", "", null};
+        for (String pkg : misses) {
+            assertFalse(String.valueOf(pkg), NotificationFilter.isMonitored(pkg));
+            assertFalse(String.valueOf(pkg), NotificationFilter.accept(pkg));
+        }
+    }
+
+    @Test
+    public void optInPackages_acceptedButNotMonitored() {
+        NotificationFilter.setOptIn(" com.icbc , ,com.unionpay", false);
+        assertTrue(NotificationFilter.accept("com.icbc"));
+        assertTrue(NotificationFilter.accept("com.unionpay"));
+        assertFalse(NotificationFilter.isMonitored("com.icbc"));
+        assertFalse(NotificationFilter.accept("com.icbc.mobile"));
+        assertFalse(NotificationFilter.accept(""));
+
+        NotificationFilter.setOptIn("", false);
+        assertFalse(NotificationFilter.accept("com.icbc"));
+        assertTrue(NotificationFilter.accept(NotificationFilter.PKG_WECHAT));
+    }
+
+    @Test
+    public void captureAll_acceptsEverything() {
+        NotificationFilter.setOptIn(null, true);
+        assertTrue(NotificationFilter.accept("com.android.systemui"));
+        assertFalse(NotificationFilter.isMonitored("com.android.systemui"));
+    }
+}
@@ -0,0 +1,208 @@
+package com.vone.vmq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 通过 {@link MockVmqServer} 对推送/心跳协议做端到端压测，
+ * 按监听服务实际的推送方式（一次请求，失败后前台服务用 force_push 重试）统计吞吐量与延迟分位数，
+ * 检查不丢单，并如实统计重复入账
+ * <p>
+ * 压测会发出几千个请求并打印统计，默认跳过，加 -Pvmq.benchmark=true 才运行；心跳签名的检查每次都运行
+ */
+public class PushClientLoadTest {
+    private static final String KEY = "test-key";
+    private static final int EVENTS = 2000;
+
+    private MockVmqServer server;
+    private PushClient pushClient;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockVmqServer(KEY);
+        server.start();
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(64);
+        dispatcher.setMaxRequestsPerHost(64);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .build();
+        pushClient = new PushClient(client);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+    }
+
+    @Test
+    public void heartbeat_signatureAccepted() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger code = new AtomicInteger();
+        pushClient.heart(server.host(), KEY, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                code.set(response.code());
+                response.close();
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(200, code.get());
+        assertEquals(1, server.heartCount.get());
+        assertEquals(0, server.badSignCount.get());
+    }
+
+    @Test
+    public void push_errorsAndEarlyDrops_noLossNoDuplicate() throws Exception {
+        assumeTrue(Boolean.getBoolean("vmq.benchmark"));
+        // 每次请求失败的概率 0.07，一笔推送共 1 + FORCE_PUSH_TRIES 次机会，
+        // 2000 笔里有一笔全部失败的概率约 0.07^6 * 2000 ≈ 0.02%
+        server.inject(5, 0.05, 0.02, 0);
+        Report report = run("errors+drops");
+        assertEquals(EVENTS, report.succeeded);
+        assertEquals(EVENTS, server.credits.size());
+        // 服务端未处理就失败的请求，重试不会造成重复入账
+        assertEquals(0, server.duplicateCount.get());
+        assertEquals(0, server.badSignCount.get());
+    }
+
+    @Test
+    public void push_lostResponses_forcePushCreditsAgain() throws Exception {
+        assumeTrue(Boolean.getBoolean("vmq.benchmark"));
+        server.inject(5, 0, 0, 0.05);
+        Report report = run("lost responses");
+        assertEquals(EVENTS, report.succeeded);
+        assertEquals(EVENTS, server.credits.size());
+        assertEquals(EVENTS + server.duplicateCount.get(), totalCredits());
+        // 已知缺陷：入账后响应丢失时，客户端分不清服务端是否处理过，前台服务的 force_push 重试
+        // 会让同一笔订单再入账一次。协议里没有幂等键，只能由服务端按签名去重才能解决
+        assertTrue("expected duplicate credits from force_push retries", server.duplicateCount.get() > 0);
+        assertEquals(0, server.badSignCount.get());
+    }
+
+    private int totalCredits() {
+        int total = 0;
+        for (AtomicInteger count : server.credits.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    private Report run(String name) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(EVENTS);
+        final long[] latencies = new long[EVENTS];
+        final AtomicIntegerArray callbacks = new AtomicIntegerArray(EVENTS);
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger attempts = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            final int index = i;
+            final long eventStart = System.nanoTime();
+            // 每笔金额不同，保证签名唯一
+            double price = (i + 1) / 100.0;
+            int type = i % 2 + 1;
+            String url = PushClient.pushUrl(server.host(), KEY, type, price, System.currentTimeMillis());
+            servicePush(url, new Outcome() {
+                @Override
+                public void done(boolean success, int tries) {
+                    latencies[index] = System.nanoTime() - eventStart;
+                    callbacks.incrementAndGet(index);
+                    attempts.addAndGet(tries);
+                    if (success) {
+                        succeeded.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue("push timed out", latch.await(120, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+        for (int i = 0; i < EVENTS; i++) {
+            assertEquals("outcome must be reported exactly once", 1, callbacks.get(i));
+        }
+        Arrays.sort(latencies);
+        System.out.println(String.format("[%s] %d events in %d ms, %.0f events/s, attempts %d, "
+                        + "p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms, duplicate credits %d",
+                name, EVENTS, elapsed / 1000000, EVENTS * 1e9 / elapsed, attempts.get(),
+                percentile(latencies, 0.50), percentile(latencies, 0.90),
+                percentile(latencies, 0.99), latencies[EVENTS - 1] / 1e6,
+                server.duplicateCount.get()));
+        Report report = new Report();
+        report.succeeded = succeeded.get();
+        return report;
+    }
+
+    /**
+     * 和监听服务一样推送：{@link NeNotificationService2#appPush} 先请求一次，失败后
+     * {@link ForegroundServer} 用 force_push 地址最多重试 {@link PushClient#FORCE_PUSH_TRIES} 次
+     * （省掉了前台服务每次重试前的延迟）
+     */
+    private void servicePush(final String url, final Outcome outcome) {
+        pushClient.push(url, new PushClient.PushListener() {
+            @Override
+            public void onResult(boolean success, String url, String body, IOException error) {
+                if (success) {
+                    outcome.done(true, 1);
+                } else {
+                    forcePush(PushClient.forcePushUrl(url), PushClient.FORCE_PUSH_TRIES, 1, outcome);
+                }
+            }
+        });
+    }
+
+    private void forcePush(final String url, final int count, final int tries, final Outcome outcome) {
+        if (count <= 0) {
+            outcome.done(false, tries);
+            return;
+        }
+        pushClient.push(url, new PushClient.PushListener() {
+            @Override
+            public void onResult(boolean success, String url, String body, IOException error) {
+                if (success) {
+                    outcome.done(true, tries + 1);
+                } else {
+                    forcePush(url, count - 1, tries + 1, outcome);
+                }
+            }
+        });
+    }
+
+    private interface Outcome {
+        void done(boolean success, int tries);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    private static final class Report {
+        int succeeded;
+    }
+}